@@ -0,0 +1,145 @@
+package com.mxcsyounes.facerecognition2;
+
+/**
+ * Closed loop that picks one of a few quality levels so analysis keeps up with a target frame rate
+ * and latency budget. Each level sets the knobs that dominate detection cost: how much the frame is
+ * downscaled before detection, the cascade scale factor, the smallest face searched for and how often
+ * the detector runs instead of the tracker.
+ * <p>
+ * Smoothed per-frame processing time and end-to-end latency are compared with the budgets. Going over
+ * either steps one level down right away. Staying well under both for a while steps one level back
+ * up. After every change the loop waits for the averages to settle. A thermal floor set from outside
+ * keeps the level from going above what the device can sustain while hot.
+ * <p>
+ * {@link #onFrameProcessed} is called from the analysis thread; the level can be read from any thread.
+ */
+public final class AdaptiveQualityController {
+
+    public static final class Level {
+        /**
+         * Scale applied to the frame before detection, 1 for full resolution.
+         */
+        public final float downscale;
+        public final double scaleFactor;
+        /**
+         * Smallest face searched for, as a fraction of the shorter side of the detection input.
+         */
+        public final float minSizeFraction;
+        public final int detectionInterval;
+
+        Level(float downscale, double scaleFactor, float minSizeFraction, int detectionInterval) {
+            this.downscale = downscale;
+            this.scaleFactor = scaleFactor;
+            this.minSizeFraction = minSizeFraction;
+            this.detectionInterval = detectionInterval;
+        }
+
+        public int minFaceSize(int width, int height) {
+            return Math.round(Math.min(width, height) * minSizeFraction);
+        }
+    }
+
+    // Best quality first.
+    private static final Level[] LEVELS = {
+            new Level(1f, 1.1, 0.08f, 3),
+            new Level(1f, 1.15, 0.1f, 5),
+            new Level(0.75f, 1.2, 0.12f, 5),
+            new Level(0.5f, 1.25, 0.15f, 8),
+            new Level(0.5f, 1.3, 0.2f, 12),
+    };
+
+    private static final double SMOOTHING = 0.1;
+    private static final double RECOVERY_HEADROOM = 0.6;
+    private static final long SETTLE_NANOS = 1_000_000_000L;
+    private static final long RECOVERY_NANOS = 3_000_000_000L;
+
+    private final long frameBudgetNanos;
+    private final long latencyBudgetNanos;
+    private volatile int level;
+    private volatile int thermalFloor;
+    private double serviceNanos;
+    private double latencyNanos;
+    private long lastChangeNanos;
+    private long headroomSinceNanos = -1;
+
+    public AdaptiveQualityController(float targetFps, long latencyBudgetNanos, int initialLevel) {
+        this.frameBudgetNanos = (long) (1e9 / targetFps);
+        this.latencyBudgetNanos = latencyBudgetNanos;
+        this.level = Math.max(0, Math.min(LEVELS.length - 1, initialLevel));
+    }
+
+    /**
+     * Feeds the time spent processing one frame and the time from its arrival to the end of
+     * processing. Returns true when the level changed.
+     */
+    public boolean onFrameProcessed(long processingNanos, long frameLatencyNanos, long nowNanos) {
+        if (lastChangeNanos == 0) {
+            serviceNanos = processingNanos;
+            latencyNanos = frameLatencyNanos;
+            lastChangeNanos = nowNanos;
+        } else {
+            serviceNanos += SMOOTHING * (processingNanos - serviceNanos);
+            latencyNanos += SMOOTHING * (frameLatencyNanos - latencyNanos);
+        }
+        int current = level;
+        int floor = thermalFloor;
+        if (current < floor) {
+            return changeLevel(floor, nowNanos);
+        }
+        if (nowNanos - lastChangeNanos < SETTLE_NANOS) {
+            return false;
+        }
+        if (serviceNanos > frameBudgetNanos || latencyNanos > latencyBudgetNanos) {
+            headroomSinceNanos = -1;
+            return current < LEVELS.length - 1 && changeLevel(current + 1, nowNanos);
+        }
+        boolean headroom = serviceNanos < frameBudgetNanos * RECOVERY_HEADROOM
+                && latencyNanos < latencyBudgetNanos * RECOVERY_HEADROOM;
+        if (!headroom || current <= floor) {
+            headroomSinceNanos = -1;
+            return false;
+        }
+        if (headroomSinceNanos < 0) {
+            headroomSinceNanos = nowNanos;
+            return false;
+        }
+        return nowNanos - headroomSinceNanos >= RECOVERY_NANOS && changeLevel(current - 1, nowNanos);
+    }
+
+    /**
+     * Keeps the level at or below the quality of {@code floor}; 0 lifts the restriction.
+     */
+    public void setThermalFloor(int floor) {
+        thermalFloor = Math.max(0, Math.min(LEVELS.length - 1, floor));
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public Level getCurrent() {
+        return LEVELS[level];
+    }
+
+    public static int getLevelCount() {
+        return LEVELS.length;
+    }
+
+    /**
+     * The level at {@code index}, 0 being the best quality.
+     */
+    public static Level levelAt(int index) {
+        return LEVELS[index];
+    }
+
+    public long getSmoothedProcessingNanos() {
+        return (long) serviceNanos;
+    }
+
+    private boolean changeLevel(int newLevel, long nowNanos) {
+        level = newLevel;
+        lastChangeNanos = nowNanos;
+        headroomSinceNanos = -1;
+        return true;
+    }
+}
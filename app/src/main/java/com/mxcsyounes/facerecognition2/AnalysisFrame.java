@@ -0,0 +1,77 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffers needed to analyse one camera frame. Instances are recycled through a
+ * {@link FrameBufferPool} so the analyzer does not allocate per frame.
+ */
+public final class AnalysisFrame implements FrameBufferPool.Frame {
+
+    public static FrameBufferPool.Factory<AnalysisFrame> factory(PipelineMetrics metrics) {
+        return new FrameBufferPool.Factory<AnalysisFrame>() {
+            @Override
+            public AnalysisFrame create(int width, int height) {
+                long start = System.nanoTime();
+                AnalysisFrame frame = new AnalysisFrame(width, height);
+                metrics.record(PipelineMetrics.Stage.MAT_CREATION, System.nanoTime() - start);
+                metrics.addNativeMatBytes(frame.nativeBytes());
+                return frame;
+            }
+
+            @Override
+            public void dispose(AnalysisFrame frame) {
+                metrics.addNativeMatBytes(-frame.nativeBytes());
+                frame.gray.release();
+            }
+        };
+    }
+
+    /**
+     * The Y plane, packed without row padding. {@link #gray} wraps this buffer, so copying the plane
+     * in is all it takes to update the Mat.
+     */
+    public final ByteBuffer luminance;
+    public final Mat gray;
+    public final FaceBoxes faces = new FaceBoxes();
+    private final int width;
+    private final int height;
+    public long timestamp;
+    /**
+     * System.nanoTime() when the frame was copied from the camera, the clock the overlay draws with.
+     */
+    public long arrivalNanos;
+    public int rotationDegrees;
+
+    private AnalysisFrame(int width, int height) {
+        this.width = width;
+        this.height = height;
+        luminance = ByteBuffer.allocateDirect(width * height);
+        gray = new Mat(height, width, CvType.CV_8UC1, luminance);
+    }
+
+    public void fill(ByteBuffer yBuffer, int rowStride, long timestamp, int rotationDegrees) {
+        YuvConverter.copyLuminance(yBuffer, rowStride, width, height, luminance);
+        this.timestamp = timestamp;
+        this.rotationDegrees = rotationDegrees;
+        arrivalNanos = System.nanoTime();
+        faces.clear();
+    }
+
+    private long nativeBytes() {
+        return gray.total() * gray.elemSize();
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,274 @@
+package com.mxcsyounes.facerecognition2;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.ImageProxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Feeds camera frames to a single analysis thread through a one-frame, keep-only-latest slot.
+ * The camera image is copied into a pooled {@link AnalysisFrame} and closed right away, so the camera
+ * never waits on detection; a frame still waiting in the slot when a newer one arrives is dropped.
+ */
+public final class AnalysisScheduler implements ImageAnalysis.Analyzer, PipelineMetrics.FrameSource {
+
+    private static final String TAG = "AnalysisScheduler";
+
+    private final FrameBufferPool<AnalysisFrame> framePool;
+    private final FrameProcessor processor;
+    private final PipelineMetrics metrics;
+    private final ExecutorService intakeExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "frame-intake"));
+    private final ExecutorService analysisExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "face-analysis"));
+    private final AtomicReference<AnalysisFrame> latestFrame = new AtomicReference<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicLong receivedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong processedFrames = new AtomicLong();
+    private final AtomicReference<FrameProcessor> snapshotRequest = new AtomicReference<>();
+    private final Runnable drainTask = this::drain;
+    private final Object idleLock = new Object();
+    private final AtomicInteger idleWaiters = new AtomicInteger();
+    private final ByteBuffer[] recordBuffers = new ByteBuffer[FrameRecording.PLANES];
+    private final int[] recordRowStrides = new int[FrameRecording.PLANES];
+    private final int[] recordPixelStrides = new int[FrameRecording.PLANES];
+    private volatile boolean ready;
+    private volatile FrameRecording recording;
+
+    public AnalysisScheduler(FrameBufferPool<AnalysisFrame> framePool, FrameProcessor processor, PipelineMetrics metrics) {
+        this.framePool = framePool;
+        this.processor = processor;
+        this.metrics = metrics;
+        metrics.setFrameSource(this);
+    }
+
+    /**
+     * Executor CameraX should invoke {@link #analyze} on. It only copies frames, so it stays responsive
+     * while the analysis thread is busy.
+     */
+    public ExecutorService getIntakeExecutor() {
+        return intakeExecutor;
+    }
+
+    /**
+     * Frames arriving before the processor is ready (for example while the detector is still loading)
+     * are closed right away without being copied.
+     */
+    public void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    @Override
+    public void analyze(@NonNull ImageProxy image) {
+        if (!ready) {
+            image.close();
+            return;
+        }
+        FrameRecording recording = this.recording;
+        if (recording != null) {
+            record(recording, image);
+        }
+        long start = System.nanoTime();
+        ImageProxy.PlaneProxy yPlane = image.getPlanes()[0];
+        AnalysisFrame frame = copyFrame(yPlane.getBuffer(), yPlane.getRowStride(), image.getWidth(), image.getHeight(),
+                image.getImageInfo().getTimestamp(), image.getImageInfo().getRotationDegrees());
+        image.close();
+        submitCopied(frame, start);
+    }
+
+    /**
+     * Feeds a frame that did not come from the camera, such as a replayed recording, through the same
+     * copy and scheduling steps as {@link #analyze}.
+     */
+    public void accept(ByteBuffer yBuffer, int rowStride, int width, int height, long timestamp, int rotationDegrees) {
+        long start = System.nanoTime();
+        submitCopied(copyFrame(yBuffer, rowStride, width, height, timestamp, rotationDegrees), start);
+    }
+
+    private AnalysisFrame copyFrame(ByteBuffer yBuffer, int rowStride, int width, int height, long timestamp, int rotationDegrees) {
+        AnalysisFrame frame = framePool.acquire(width, height);
+        frame.fill(yBuffer, rowStride, timestamp, rotationDegrees);
+        return frame;
+    }
+
+    private void submitCopied(AnalysisFrame frame, long start) {
+        metrics.record(PipelineMetrics.Stage.YUV_COPY, System.nanoTime() - start);
+        submit(frame);
+    }
+
+    /**
+     * Starts writing every camera frame to {@code recording} before it is analysed, or stops with null.
+     * The caller closes the recording after stopping.
+     */
+    public void setRecording(FrameRecording recording) {
+        this.recording = recording;
+    }
+
+    private void record(FrameRecording recording, ImageProxy image) {
+        ImageProxy.PlaneProxy[] planes = image.getPlanes();
+        for (int p = 0; p < FrameRecording.PLANES; p++) {
+            recordBuffers[p] = planes[p].getBuffer();
+            recordRowStrides[p] = planes[p].getRowStride();
+            recordPixelStrides[p] = planes[p].getPixelStride();
+        }
+        try {
+            recording.append(image.getWidth(), image.getHeight(), image.getImageInfo().getTimestamp(),
+                    image.getImageInfo().getRotationDegrees(), recordBuffers, recordRowStrides, recordPixelStrides);
+        } catch (IOException e) {
+            Log.e(TAG, "recording stopped", e);
+            this.recording = null;
+        }
+    }
+
+    public void submit(AnalysisFrame frame) {
+        receivedFrames.incrementAndGet();
+        AnalysisFrame displaced = latestFrame.getAndSet(frame);
+        if (displaced != null) {
+            droppedFrames.incrementAndGet();
+            framePool.release(displaced);
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Hands the next processed frame to {@code snapshot} as well, on the analysis thread and before the
+     * regular processor sees it. Used to capture a still from the analysis stream without a JPEG round trip.
+     * A request still pending is replaced.
+     */
+    public void requestSnapshot(FrameProcessor snapshot) {
+        snapshotRequest.set(snapshot);
+    }
+
+    /**
+     * Blocks until every submitted frame has been processed or dropped. Lets a replay hand frames over
+     * one at a time, so none is dropped when it runs faster than the analysis.
+     */
+    public void awaitIdle() throws InterruptedException {
+        idleWaiters.incrementAndGet();
+        try {
+            synchronized (idleLock) {
+                while (latestFrame.get() != null || drainScheduled.get()) {
+                    idleLock.wait();
+                }
+            }
+        } finally {
+            idleWaiters.decrementAndGet();
+        }
+    }
+
+    public long getReceivedFrames() {
+        return receivedFrames.get();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    @Override
+    public long getProcessedFrames() {
+        return processedFrames.get();
+    }
+
+    /**
+     * Stops taking frames and runs {@code onStopped} as the last task of the analysis thread, once the
+     * frame being analysed, if any, is done. Whatever the processor uses natively can be released
+     * there without racing a frame still in flight. Returns without waiting for it.
+     */
+    public void shutdown(Runnable onStopped) {
+        intakeExecutor.shutdown();
+        try {
+            intakeExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        analysisExecutor.execute(() -> {
+            releasePending();
+            framePool.clear();
+            onStopped.run();
+        });
+        analysisExecutor.shutdown();
+    }
+
+    private void releasePending() {
+        AnalysisFrame pending = latestFrame.getAndSet(null);
+        if (pending != null) {
+            framePool.release(pending);
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                analysisExecutor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                // Shut down, no drain will run again; the pool disposes the frame once cleared.
+                drainScheduled.set(false);
+                releasePending();
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            AnalysisFrame frame;
+            while ((frame = latestFrame.getAndSet(null)) != null) {
+                try {
+                    FrameProcessor snapshot = snapshotRequest.getAndSet(null);
+                    if (snapshot != null) {
+                        process(snapshot, frame);
+                    }
+                    if (process(processor, frame)) {
+                        processedFrames.incrementAndGet();
+                        metrics.onFrameProcessed(System.nanoTime());
+                    }
+                } finally {
+                    framePool.release(frame);
+                }
+            }
+        } finally {
+            // Also when an Error escapes, so the next frame still schedules a drain and awaitIdle returns.
+            drainScheduled.set(false);
+            if (latestFrame.get() != null) {
+                scheduleDrain();
+            }
+            if (idleWaiters.get() > 0) {
+                synchronized (idleLock) {
+                    idleLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs {@code processor} on {@code frame}, logging what it throws instead of letting one bad frame
+     * stop the analysis thread. Returns false when it threw.
+     */
+    private static boolean process(FrameProcessor processor, AnalysisFrame frame) {
+        try {
+            processor.process(frame);
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "frame " + frame.timestamp + " failed", e);
+            return false;
+        }
+    }
+
+    public interface FrameProcessor {
+        /**
+         * Called on the analysis thread, one frame at a time. The frame goes back to the pool afterwards.
+         */
+        void process(AnalysisFrame frame);
+    }
+}
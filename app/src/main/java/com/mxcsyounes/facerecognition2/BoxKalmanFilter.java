@@ -0,0 +1,97 @@
+package com.mxcsyounes.facerecognition2;
+
+/**
+ * Constant-velocity Kalman filter over a face box, run as four independent position/velocity
+ * filters on center x, center y, width and height. Time is in nanoseconds, distances in pixels.
+ */
+public final class BoxKalmanFilter {
+
+    private static final int AXES = 4;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final double[] processNoise;
+    private final double[] measurementNoise;
+    private final double[] position = new double[AXES];
+    private final double[] velocity = new double[AXES];
+    private final double[] p00 = new double[AXES];
+    private final double[] p01 = new double[AXES];
+    private final double[] p11 = new double[AXES];
+    private final double[] measurement = new double[AXES];
+    private long lastUpdateNanos;
+
+    /**
+     * @param centerAcceleration expected acceleration of the box center, in pixels per second squared
+     * @param sizeAcceleration   expected acceleration of the box size, in pixels per second squared
+     * @param measurementError   standard deviation of detector jitter, in pixels
+     */
+    public BoxKalmanFilter(double centerAcceleration, double sizeAcceleration, double measurementError) {
+        double centerNoise = centerAcceleration * centerAcceleration;
+        double sizeNoise = sizeAcceleration * sizeAcceleration;
+        processNoise = new double[]{centerNoise, centerNoise, sizeNoise, sizeNoise};
+        double r = measurementError * measurementError;
+        measurementNoise = new double[]{r, r, r, r};
+    }
+
+    public void reset(int x, int y, int width, int height, long timestampNanos) {
+        setMeasurement(x, y, width, height);
+        for (int axis = 0; axis < AXES; axis++) {
+            position[axis] = measurement[axis];
+            velocity[axis] = 0;
+            p00[axis] = measurementNoise[axis];
+            p01[axis] = 0;
+            // Velocity is unknown at first, allow it to settle quickly.
+            p11[axis] = processNoise[axis];
+        }
+        lastUpdateNanos = timestampNanos;
+    }
+
+    public void update(int x, int y, int width, int height, long timestampNanos) {
+        double dt = Math.max(0, timestampNanos - lastUpdateNanos) / NANOS_PER_SECOND;
+        setMeasurement(x, y, width, height);
+        for (int axis = 0; axis < AXES; axis++) {
+            double q = processNoise[axis];
+            position[axis] += velocity[axis] * dt;
+            double dt2 = dt * dt;
+            double predicted00 = p00[axis] + 2 * dt * p01[axis] + dt2 * p11[axis] + q * dt2 * dt2 / 4;
+            double predicted01 = p01[axis] + dt * p11[axis] + q * dt2 * dt / 2;
+            double predicted11 = p11[axis] + q * dt2;
+
+            double innovation = measurement[axis] - position[axis];
+            double s = predicted00 + measurementNoise[axis];
+            double k0 = predicted00 / s;
+            double k1 = predicted01 / s;
+            position[axis] += k0 * innovation;
+            velocity[axis] += k1 * innovation;
+            p00[axis] = (1 - k0) * predicted00;
+            p01[axis] = (1 - k0) * predicted01;
+            p11[axis] = predicted11 - k1 * predicted01;
+        }
+        lastUpdateNanos = timestampNanos;
+    }
+
+    /**
+     * Writes the box extrapolated to {@code timestampNanos}, never further than {@code maxAheadNanos}
+     * past the last measurement, into {@code out} at {@code index}.
+     */
+    public void predict(long timestampNanos, long maxAheadNanos, FaceBoxes out, int index) {
+        long ahead = Math.min(Math.max(0, timestampNanos - lastUpdateNanos), maxAheadNanos);
+        double dt = ahead / NANOS_PER_SECOND;
+        double centerX = position[0] + velocity[0] * dt;
+        double centerY = position[1] + velocity[1] * dt;
+        double width = Math.max(1, position[2] + velocity[2] * dt);
+        double height = Math.max(1, position[3] + velocity[3] * dt);
+        out.set(index, (int) Math.round(centerX - width / 2), (int) Math.round(centerY - height / 2),
+                (int) Math.round(width), (int) Math.round(height));
+    }
+
+    public long getLastUpdateNanos() {
+        return lastUpdateNanos;
+    }
+
+    private void setMeasurement(int x, int y, int width, int height) {
+        measurement[0] = x + width / 2.0;
+        measurement[1] = y + height / 2.0;
+        measurement[2] = width;
+        measurement[3] = height;
+    }
+}
@@ -0,0 +1,89 @@
+package com.mxcsyounes.facerecognition2;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes captured JPEGs straight to a size suitable for detection. The JPEG is subsampled by the
+ * largest power of two that keeps the shorter side at or above the target, the aspect ratio is kept,
+ * and decoded bitmaps are recycled through a small pool as {@code inBitmap} for the next capture.
+ * Not thread safe, meant to be used from the single capture thread.
+ */
+public final class CaptureDecoder {
+
+    private static final int MAX_POOLED_BITMAPS = 2;
+
+    private final int targetSize;
+    private final List<Bitmap> pool = new ArrayList<>(MAX_POOLED_BITMAPS);
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+    private byte[] jpeg = new byte[0];
+
+    public CaptureDecoder(int targetSize) {
+        this.targetSize = targetSize;
+    }
+
+    public Bitmap decode(ByteBuffer jpegBuffer) {
+        int length = jpegBuffer.remaining();
+        if (jpeg.length < length) {
+            jpeg = new byte[length];
+        }
+        jpegBuffer.get(jpeg, 0, length);
+
+        options.inJustDecodeBounds = true;
+        options.inBitmap = null;
+        BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSizeFor(options.outWidth, options.outHeight, targetSize);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+
+        int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        options.inBitmap = takeFromPool(width * height * 4);
+        try {
+            return BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not be reused for this image, decode into a fresh one.
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+        }
+    }
+
+    public void recycle(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable()) return;
+        if (pool.size() < MAX_POOLED_BITMAPS) {
+            pool.add(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    public void clear() {
+        for (Bitmap bitmap : pool) {
+            bitmap.recycle();
+        }
+        pool.clear();
+    }
+
+    static int sampleSizeFor(int width, int height, int targetSize) {
+        int sampleSize = 1;
+        int shorter = Math.min(width, height);
+        while (shorter / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private Bitmap takeFromPool(int byteCount) {
+        for (int i = 0; i < pool.size(); i++) {
+            if (pool.get(i).getAllocationByteCount() >= byteCount) {
+                return pool.remove(i);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,86 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.IOException;
+
+/**
+ * Cascade classifier backend, used for both the Haar and the LBP cascades. LBP features are integer
+ * comparisons instead of Haar's weighted rectangle sums, several times faster on a phone CPU at the
+ * cost of more false positives and misses on small or poorly lit faces.
+ */
+public final class CascadeFaceDetector implements FaceDetector {
+
+    public static final String HAAR_MODEL = "haarcascade_frontalface_alt2.xml";
+    public static final String LBP_MODEL = "lbpcascade_frontalface_improved.xml";
+
+    private static final double DEFAULT_SCALE_FACTOR = 1.1;
+    private static final int MIN_NEIGHBORS = 3;
+
+    private final String name;
+    private final String cascadePath;
+    private final CascadeClassifier classifier;
+    private final long initNanos;
+    private final MatOfRect detections = new MatOfRect();
+    private final Size minSize = new Size();
+    private final Size maxSize = new Size();
+    private Mat gray;
+    private double scaleFactor = DEFAULT_SCALE_FACTOR;
+
+    public CascadeFaceDetector(String name, String cascadePath) throws IOException {
+        long start = System.nanoTime();
+        classifier = new CascadeClassifier(cascadePath);
+        initNanos = System.nanoTime() - start;
+        if (classifier.empty()) {
+            throw new IOException("could not load cascade " + cascadePath);
+        }
+        this.name = name;
+        this.cascadePath = cascadePath;
+    }
+
+    @Override
+    public void detect(Mat image, FaceBoxes out) {
+        Mat input = image;
+        if (image.channels() == 3) {
+            if (gray == null) gray = new Mat();
+            Imgproc.cvtColor(image, gray, Imgproc.COLOR_RGB2GRAY);
+            input = gray;
+        }
+        classifier.detectMultiScale(input, detections, scaleFactor, MIN_NEIGHBORS, 0, minSize, maxSize);
+        out.copyFrom(detections);
+    }
+
+    @Override
+    public void setParameters(double scaleFactor, int minFaceSize, int maxFaceSize) {
+        this.scaleFactor = scaleFactor;
+        minSize.width = minSize.height = minFaceSize;
+        maxSize.width = maxSize.height = maxFaceSize;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getInitNanos() {
+        return initNanos;
+    }
+
+    /**
+     * The cascade file, for detectors that need classifiers of their own on other threads.
+     */
+    public String getCascadePath() {
+        return cascadePath;
+    }
+
+    @Override
+    public void release() {
+        detections.release();
+        if (gray != null) gray.release();
+    }
+}
@@ -0,0 +1,110 @@
+package com.mxcsyounes.facerecognition2;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Extracts a raw model resource to private storage once and reuses it on later launches. The cached
+ * file is trusted only if its size and SHA-256 match what was recorded when it was written, and the
+ * app has not been updated since.
+ */
+public final class CascadeModelCache {
+
+    private static final String TAG = "CascadeModelCache";
+    private static final String PREFS = "model_cache";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+
+    public CascadeModelCache(Context context) {
+        this.context = context.getApplicationContext();
+        prefs = this.context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    public File get(int rawResId, String fileName) throws IOException {
+        File dir = context.getDir("cascade", Context.MODE_PRIVATE);
+        File file = new File(dir, fileName);
+        long appUpdateTime = appUpdateTime();
+        if (isValid(file, fileName, appUpdateTime)) {
+            return file;
+        }
+        Log.d(TAG, "extracting " + fileName);
+        File partial = new File(dir, fileName + ".tmp");
+        MessageDigest digest = newDigest();
+        try (InputStream in = context.getResources().openRawResource(rawResId);
+             OutputStream out = new DigestOutputStream(new FileOutputStream(partial), digest)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+        }
+        if (!partial.renameTo(file)) {
+            throw new IOException("could not move " + partial + " to " + file);
+        }
+        prefs.edit()
+                .putLong(fileName + ".size", file.length())
+                .putString(fileName + ".sha256", toHex(digest.digest()))
+                .putLong(fileName + ".appUpdateTime", appUpdateTime)
+                .apply();
+        return file;
+    }
+
+    private boolean isValid(File file, String fileName, long appUpdateTime) throws IOException {
+        if (!file.isFile()
+                || file.length() != prefs.getLong(fileName + ".size", -1)
+                || appUpdateTime != prefs.getLong(fileName + ".appUpdateTime", -1)) {
+            return false;
+        }
+        return sha256(file).equals(prefs.getString(fileName + ".sha256", null));
+    }
+
+    private long appUpdateTime() {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
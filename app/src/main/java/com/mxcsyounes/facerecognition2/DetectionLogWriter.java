@@ -0,0 +1,57 @@
+package com.mxcsyounes.facerecognition2;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes the faces found in every analysed frame of a replayed {@link FrameRecording} as one JSON
+ * object per line: {@code {"frame":0,"timestamp":123,"faces":[[x,y,w,h,id,label]]}}. {@code frame} is
+ * the index of the frame in the recording, found by its timestamp, or -1 for a timestamp the recording
+ * does not hold. Frames dropped on the way, as they are at {@link FrameReplayer.Pace#RECORDED}, leave
+ * gaps in the indices rather than shifting the frames after them, so the logs of two replays can be
+ * joined on {@code frame}. Not thread safe.
+ */
+public final class DetectionLogWriter implements AutoCloseable {
+
+    private final Writer writer;
+    private final StringBuilder line = new StringBuilder(256);
+    private final long[] frameTimestamps;
+
+    /**
+     * Reads the frame timestamps of {@code recording}, which are in recording order and increasing as
+     * the camera delivered them; the recording may be closed afterwards.
+     */
+    public DetectionLogWriter(Writer writer, FrameRecording recording) {
+        this.writer = writer;
+        frameTimestamps = new long[recording.getFrameCount()];
+        for (int i = 0; i < frameTimestamps.length; i++) {
+            frameTimestamps[i] = recording.getTimestamp(i);
+        }
+    }
+
+    public void write(long timestamp, FaceBoxes faces) throws IOException {
+        int frame = Arrays.binarySearch(frameTimestamps, timestamp);
+        line.setLength(0);
+        line.append("{\"frame\":").append(frame >= 0 ? frame : -1)
+                .append(",\"timestamp\":").append(timestamp)
+                .append(",\"faces\":[");
+        for (int i = 0; i < faces.size(); i++) {
+            if (i > 0) line.append(',');
+            line.append('[').append(faces.x(i))
+                    .append(',').append(faces.y(i))
+                    .append(',').append(faces.width(i))
+                    .append(',').append(faces.height(i))
+                    .append(',').append(faces.id(i))
+                    .append(',').append(faces.label(i))
+                    .append(']');
+        }
+        line.append("]}\n");
+        writer.append(line);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,123 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.CvException;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+
+/**
+ * Single shot detector run by OpenCV's dnn module on the CPU, with the 300x300 ResNet-10 face model
+ * OpenCV publishes ({@link #MODEL} and {@link #CONFIG}, the 8 bit quantized TensorFlow variant). It
+ * costs more per frame than a cascade but finds profile, tilted and small faces a cascade misses, and
+ * its cost does not depend on the frame size since every frame is resized to the network input.
+ * <p>
+ * The scale factor is ignored; the face size range filters the results.
+ */
+public final class DnnFaceDetector implements FaceDetector {
+
+    public static final String MODEL = "opencv_face_detector_uint8.pb";
+    public static final String CONFIG = "opencv_face_detector.pbtxt";
+
+    private static final Size INPUT_SIZE = new Size(300, 300);
+    private static final Scalar MEAN = new Scalar(104, 177, 123);
+    private static final int VALUES_PER_DETECTION = 7;
+
+    private final Net net;
+    private final float confidenceThreshold;
+    private final long initNanos;
+    private final Mat resized = new Mat();
+    private final Mat color = new Mat();
+    private float[] values = new float[0];
+    private int minFaceSize;
+    private int maxFaceSize;
+
+    public DnnFaceDetector(String modelPath, String configPath, float confidenceThreshold) throws IOException {
+        long start = System.nanoTime();
+        try {
+            net = Dnn.readNet(modelPath, configPath);
+        } catch (CvException e) {
+            throw new IOException("could not load network " + modelPath, e);
+        }
+        initNanos = System.nanoTime() - start;
+        if (net.empty()) {
+            throw new IOException("could not load network " + modelPath);
+        }
+        net.setPreferableBackend(Dnn.DNN_BACKEND_OPENCV);
+        net.setPreferableTarget(Dnn.DNN_TARGET_CPU);
+        this.confidenceThreshold = confidenceThreshold;
+    }
+
+    @Override
+    public void detect(Mat image, FaceBoxes out) {
+        int width = image.cols();
+        int height = image.rows();
+        // Resizing before the channel conversion keeps the conversion at the input size.
+        Imgproc.resize(image, resized, INPUT_SIZE, 0, 0, Imgproc.INTER_LINEAR);
+        Mat input = resized;
+        if (resized.channels() == 1) {
+            Imgproc.cvtColor(resized, color, Imgproc.COLOR_GRAY2RGB);
+            input = color;
+        }
+        // The model was trained on BGR, the input is RGB.
+        Mat blob = Dnn.blobFromImage(input, 1.0, INPUT_SIZE, MEAN, true, false);
+        net.setInput(blob);
+        Mat result = net.forward();
+        blob.release();
+        // Rows of [image, class, confidence, left, top, right, bottom], corners relative to the image.
+        int count = (int) (result.total() / VALUES_PER_DETECTION);
+        Mat table = result.reshape(1, count);
+        if (values.length != count * VALUES_PER_DETECTION) {
+            values = new float[count * VALUES_PER_DETECTION];
+        }
+        table.get(0, 0, values);
+        table.release();
+        result.release();
+
+        out.clear();
+        for (int i = 0; i < count; i++) {
+            int row = i * VALUES_PER_DETECTION;
+            if (values[row + 2] < confidenceThreshold) continue;
+            int left = clamp(Math.round(values[row + 3] * width), width);
+            int top = clamp(Math.round(values[row + 4] * height), height);
+            int right = clamp(Math.round(values[row + 5] * width), width);
+            int bottom = clamp(Math.round(values[row + 6] * height), height);
+            int faceWidth = right - left;
+            int faceHeight = bottom - top;
+            if (faceWidth <= 0 || faceHeight <= 0) continue;
+            if (Math.min(faceWidth, faceHeight) < minFaceSize) continue;
+            if (maxFaceSize > 0 && Math.max(faceWidth, faceHeight) > maxFaceSize) continue;
+            out.add(left, top, faceWidth, faceHeight);
+        }
+    }
+
+    @Override
+    public void setParameters(double scaleFactor, int minFaceSize, int maxFaceSize) {
+        this.minFaceSize = minFaceSize;
+        this.maxFaceSize = maxFaceSize;
+    }
+
+    @Override
+    public String getName() {
+        return "dnn";
+    }
+
+    @Override
+    public long getInitNanos() {
+        return initNanos;
+    }
+
+    @Override
+    public void release() {
+        resized.release();
+        color.release();
+    }
+
+    private static int clamp(int value, int limit) {
+        return Math.max(0, Math.min(limit, value));
+    }
+}
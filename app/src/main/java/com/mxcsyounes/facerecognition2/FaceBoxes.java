@@ -0,0 +1,142 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.MatOfRect;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of face rectangles stored as packed {x, y, width, height} ints, so detection
+ * results can be carried from frame to frame without allocating Rect objects. Each box also
+ * carries a track id, {@link #NO_ID} when the box is not associated with a track, and an identity
+ * label, {@link #NO_LABEL} until the face is recognized.
+ */
+public final class FaceBoxes {
+
+    public static final int NO_ID = -1;
+    public static final int NO_LABEL = -1;
+
+    private static final int FIELDS = 4;
+
+    private int[] data;
+    private int[] ids;
+    private int[] labels;
+    private int count;
+
+    public FaceBoxes() {
+        this(4);
+    }
+
+    public FaceBoxes(int initialCapacity) {
+        data = new int[Math.max(1, initialCapacity) * FIELDS];
+        ids = new int[Math.max(1, initialCapacity)];
+        labels = new int[Math.max(1, initialCapacity)];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public int x(int index) {
+        return data[index * FIELDS];
+    }
+
+    public int y(int index) {
+        return data[index * FIELDS + 1];
+    }
+
+    public int width(int index) {
+        return data[index * FIELDS + 2];
+    }
+
+    public int height(int index) {
+        return data[index * FIELDS + 3];
+    }
+
+    public int id(int index) {
+        return ids[index];
+    }
+
+    public void setId(int index, int id) {
+        ids[index] = id;
+    }
+
+    public int label(int index) {
+        return labels[index];
+    }
+
+    public void setLabel(int index, int label) {
+        labels[index] = label;
+    }
+
+    public void add(int x, int y, int width, int height) {
+        add(x, y, width, height, NO_ID);
+    }
+
+    public void add(int x, int y, int width, int height, int id) {
+        ensureCapacity(count + 1);
+        int offset = count * FIELDS;
+        data[offset] = x;
+        data[offset + 1] = y;
+        data[offset + 2] = width;
+        data[offset + 3] = height;
+        ids[count] = id;
+        labels[count] = NO_LABEL;
+        count++;
+    }
+
+    public void set(int index, int x, int y, int width, int height) {
+        int offset = index * FIELDS;
+        data[offset] = x;
+        data[offset + 1] = y;
+        data[offset + 2] = width;
+        data[offset + 3] = height;
+    }
+
+    public void copyFrom(FaceBoxes other) {
+        ensureCapacity(other.count);
+        System.arraycopy(other.data, 0, data, 0, other.count * FIELDS);
+        System.arraycopy(other.ids, 0, ids, 0, other.count);
+        System.arraycopy(other.labels, 0, labels, 0, other.count);
+        count = other.count;
+    }
+
+    public void copyFrom(MatOfRect detections) {
+        int total = (int) detections.total();
+        ensureCapacity(total);
+        if (total > 0) {
+            detections.get(0, 0, data);
+            Arrays.fill(ids, 0, total, NO_ID);
+            Arrays.fill(labels, 0, total, NO_LABEL);
+        }
+        count = total;
+    }
+
+    public static float intersectionOverUnion(int ax, int ay, int aw, int ah, int bx, int by, int bw, int bh) {
+        int left = Math.max(ax, bx);
+        int top = Math.max(ay, by);
+        int right = Math.min(ax + aw, bx + bw);
+        int bottom = Math.min(ay + ah, by + bh);
+        if (right <= left || bottom <= top) {
+            return 0f;
+        }
+        float intersection = (float) (right - left) * (bottom - top);
+        return intersection / ((float) aw * ah + (float) bw * bh - intersection);
+    }
+
+    private void ensureCapacity(int boxes) {
+        if (boxes > ids.length) {
+            int capacity = Math.max(boxes, count * 2);
+            data = Arrays.copyOf(data, capacity * FIELDS);
+            ids = Arrays.copyOf(ids, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+        }
+    }
+}
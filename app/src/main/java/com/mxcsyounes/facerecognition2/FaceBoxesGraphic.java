@@ -0,0 +1,141 @@
+package com.mxcsyounes.facerecognition2;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import java.util.Arrays;
+
+/**
+ * Draws every detected face in one pass. Boxes are kept as a primitive array of corners, mapped to
+ * view coordinates with the overlay's cached transformation matrix in a single call and drawn as one
+ * batch of lines, so ten faces cost about the same as one and nothing is allocated per draw.
+ * Recognized faces get their label written above the box.
+ */
+public class FaceBoxesGraphic extends GraphicOverlay.Graphic {
+
+    private static final int FLOATS_PER_BOX = 4;
+    private static final int LINE_FLOATS_PER_BOX = 16;
+    private static final float LABEL_TEXT_SIZE = 40f;
+
+    private final Paint boxPaint;
+    private final Paint labelPaint;
+    private final Matrix sourceMatrix = new Matrix();
+    private float[] corners = new float[FLOATS_PER_BOX * 4];
+    private float[] lines = new float[LINE_FLOATS_PER_BOX * 4];
+    private int[] labels = new int[4];
+    private String[] labelTexts = new String[0];
+    private int count;
+    private int sourceWidth;
+    private int sourceHeight;
+
+    public FaceBoxesGraphic(GraphicOverlay overlay) {
+        super(overlay);
+        boxPaint = new Paint();
+        boxPaint.setColor(Color.GREEN);
+        boxPaint.setStyle(Paint.Style.STROKE);
+        boxPaint.setStrokeWidth(5.0f);
+        boxPaint.setStrokeCap(Paint.Cap.SQUARE);
+        labelPaint = new Paint();
+        labelPaint.setColor(Color.GREEN);
+        labelPaint.setTextSize(LABEL_TEXT_SIZE);
+    }
+
+    /**
+     * Copies the boxes, given in the coordinates of a frame of the given size, and turns them upright
+     * by {@code rotationDegrees}. When the upright frame differs in size from the image passed to
+     * {@link GraphicOverlay#setImageSourceInfo}, as a still capture does, the boxes are scaled to it.
+     */
+    public synchronized void setBoxes(FaceBoxes faces, int frameWidth, int frameHeight, int rotationDegrees) {
+        count = faces.size();
+        boolean sideways = rotationDegrees == 90 || rotationDegrees == 270;
+        sourceWidth = sideways ? frameHeight : frameWidth;
+        sourceHeight = sideways ? frameWidth : frameHeight;
+        if (corners.length < count * FLOATS_PER_BOX) {
+            corners = Arrays.copyOf(corners, count * FLOATS_PER_BOX);
+            lines = Arrays.copyOf(lines, count * LINE_FLOATS_PER_BOX);
+        }
+        if (labels.length < count) {
+            labels = Arrays.copyOf(labels, count);
+        }
+        for (int i = 0; i < count; i++) {
+            labels[i] = faces.label(i);
+            int left = faces.x(i);
+            int top = faces.y(i);
+            int right = left + faces.width(i);
+            int bottom = top + faces.height(i);
+            int offset = i * FLOATS_PER_BOX;
+            switch (rotationDegrees) {
+                case 90:
+                    setCorners(offset, frameHeight - bottom, left, frameHeight - top, right);
+                    break;
+                case 180:
+                    setCorners(offset, frameWidth - right, frameHeight - bottom, frameWidth - left, frameHeight - top);
+                    break;
+                case 270:
+                    setCorners(offset, top, frameWidth - right, bottom, frameWidth - left);
+                    break;
+                default:
+                    setCorners(offset, left, top, right, bottom);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void draw(Canvas canvas) {
+        if (count == 0) return;
+        // Maps {left, top} and {right, bottom} of every box as points, writing them into the start
+        // of the line buffer before it is expanded into four edges per box below.
+        getTransformationMatrix(sourceWidth, sourceHeight, sourceMatrix).mapPoints(lines, 0, corners, 0, count * 2);
+        for (int i = count - 1; i >= 0; i--) {
+            int from = i * FLOATS_PER_BOX;
+            float left = lines[from];
+            float top = lines[from + 1];
+            float right = lines[from + 2];
+            float bottom = lines[from + 3];
+            int to = i * LINE_FLOATS_PER_BOX;
+            lines[to] = left;
+            lines[to + 1] = top;
+            lines[to + 2] = right;
+            lines[to + 3] = top;
+            lines[to + 4] = right;
+            lines[to + 5] = top;
+            lines[to + 6] = right;
+            lines[to + 7] = bottom;
+            lines[to + 8] = right;
+            lines[to + 9] = bottom;
+            lines[to + 10] = left;
+            lines[to + 11] = bottom;
+            lines[to + 12] = left;
+            lines[to + 13] = bottom;
+            lines[to + 14] = left;
+            lines[to + 15] = top;
+        }
+        canvas.drawLines(lines, 0, count * LINE_FLOATS_PER_BOX, boxPaint);
+        for (int i = 0; i < count; i++) {
+            if (labels[i] < 0) continue;
+            int from = i * LINE_FLOATS_PER_BOX;
+            canvas.drawText(labelText(labels[i]), Math.min(lines[from], lines[from + 2]),
+                    Math.min(lines[from + 1], lines[from + 7]) - boxPaint.getStrokeWidth(), labelPaint);
+        }
+    }
+
+    private String labelText(int label) {
+        if (label >= labelTexts.length) {
+            labelTexts = Arrays.copyOf(labelTexts, label + 1);
+        }
+        if (labelTexts[label] == null) {
+            labelTexts[label] = "#" + label;
+        }
+        return labelTexts[label];
+    }
+
+    private void setCorners(int offset, int left, int top, int right, int bottom) {
+        corners[offset] = left;
+        corners[offset + 1] = top;
+        corners[offset + 2] = right;
+        corners[offset + 3] = bottom;
+    }
+}
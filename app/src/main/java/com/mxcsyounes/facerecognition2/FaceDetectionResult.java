@@ -0,0 +1,125 @@
+package com.mxcsyounes.facerecognition2;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The faces found in one image: its timestamp, every box with track id and label, and the size and
+ * remaining rotation of the image the boxes refer to. Never changed while anyone holds it, so any
+ * number of subscribers can read it on any thread.
+ * <p>
+ * Results taken from a {@link Pool} are refilled for a later image once every holder has let go:
+ * whoever obtains one owns a reference, and a subscriber keeping a result past
+ * {@link FaceDetectionStream.Subscriber#onResult} must {@link #retain()} it and {@link #release()} it
+ * when done. Results made with the constructor belong to no pool and are simply collected.
+ */
+public final class FaceDetectionResult {
+
+    public long timestamp;
+    /**
+     * System.nanoTime() when the image arrived, the clock the overlay predicts with.
+     */
+    public long arrivalNanos;
+    public int imageWidth;
+    public int imageHeight;
+    public int rotationDegrees;
+    /**
+     * True for a captured still, false for a frame of the analysis stream.
+     */
+    public boolean still;
+    private final FaceBoxes faces = new FaceBoxes();
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final Pool pool;
+
+    public FaceDetectionResult(long timestamp, long arrivalNanos, FaceBoxes faces, int imageWidth, int imageHeight,
+                               int rotationDegrees, boolean still) {
+        this(null);
+        set(timestamp, arrivalNanos, faces, imageWidth, imageHeight, rotationDegrees, still);
+    }
+
+    private FaceDetectionResult(Pool pool) {
+        this.pool = pool;
+    }
+
+    private void set(long timestamp, long arrivalNanos, FaceBoxes faces, int imageWidth, int imageHeight,
+                     int rotationDegrees, boolean still) {
+        this.timestamp = timestamp;
+        this.arrivalNanos = arrivalNanos;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.rotationDegrees = rotationDegrees;
+        this.still = still;
+        this.faces.copyFrom(faces);
+    }
+
+    /**
+     * The boxes, read only.
+     */
+    public FaceBoxes getFaces() {
+        return faces;
+    }
+
+    public boolean isEmpty() {
+        return faces.isEmpty();
+    }
+
+    /**
+     * Adds a reference, so the result is not refilled before the matching {@link #release()}.
+     */
+    public FaceDetectionResult retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Drops a reference; the last one hands a pooled result back to its pool.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0 && pool != null) {
+            pool.recycle(this);
+        }
+    }
+
+    /**
+     * Recycles results so publishing one per analysed frame allocates nothing once a few are in
+     * circulation. Thread safe.
+     */
+    public static final class Pool {
+
+        private final int maxIdle;
+        private final ArrayDeque<FaceDetectionResult> idle;
+        private int created;
+
+        public Pool(int maxIdle) {
+            this.maxIdle = maxIdle;
+            idle = new ArrayDeque<>(maxIdle);
+        }
+
+        /**
+         * A result holding a copy of {@code faces}, with one reference owned by the caller.
+         */
+        public FaceDetectionResult obtain(long timestamp, long arrivalNanos, FaceBoxes faces, int imageWidth,
+                                          int imageHeight, int rotationDegrees, boolean still) {
+            FaceDetectionResult result;
+            synchronized (this) {
+                result = idle.pollFirst();
+                if (result == null) created++;
+            }
+            if (result == null) {
+                result = new FaceDetectionResult(this);
+            } else {
+                result.references.set(1);
+            }
+            result.set(timestamp, arrivalNanos, faces, imageWidth, imageHeight, rotationDegrees, still);
+            return result;
+        }
+
+        public synchronized int getCreatedCount() {
+            return created;
+        }
+
+        private synchronized void recycle(FaceDetectionResult result) {
+            if (idle.size() < maxIdle) idle.addFirst(result);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.mxcsyounes.facerecognition2;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Publishes one {@link FaceDetectionResult} per analysed image to any number of subscribers, so the
+ * overlay, the smoother and the detection log are fed the same way and the analyzer touches none of
+ * them directly. A result older than the last published one is dropped, so a slow producer never
+ * overwrites newer boxes.
+ * <p>
+ * Subscribers are called on the publishing thread, one result at a time and in timestamp order, and
+ * must return quickly. UI subscribers go through {@link VsyncResultDelivery} instead of running here.
+ * The stream holds a reference to the latest result, see {@link FaceDetectionResult#retain()}.
+ */
+public final class FaceDetectionStream {
+
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private long lastTimestamp = Long.MIN_VALUE;
+    private FaceDetectionResult latest;
+
+    public void subscribe(Subscriber subscriber) {
+        subscribers.addIfAbsent(subscriber);
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Hands {@code result} to every subscriber. Returns false, without calling any, when a result for
+     * a newer image was already published.
+     */
+    public synchronized boolean publish(FaceDetectionResult result) {
+        if (result.timestamp < lastTimestamp) {
+            return false;
+        }
+        lastTimestamp = result.timestamp;
+        if (latest != null) latest.release();
+        latest = result.retain();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.onResult(result);
+        }
+        return true;
+    }
+
+    /**
+     * The last published result, or null. Retained for the caller, who releases it.
+     */
+    public synchronized FaceDetectionResult getLatest() {
+        return latest != null ? latest.retain() : null;
+    }
+
+    /**
+     * Forgets the last published result, for when a new source starts over with older timestamps.
+     */
+    public synchronized void reset() {
+        lastTimestamp = Long.MIN_VALUE;
+        if (latest != null) latest.release();
+        latest = null;
+    }
+
+    public interface Subscriber {
+        void onResult(FaceDetectionResult result);
+    }
+}
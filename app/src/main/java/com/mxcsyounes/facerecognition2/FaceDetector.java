@@ -0,0 +1,29 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.Mat;
+
+/**
+ * A face detection backend. Implementations own their model and native buffers and are not thread
+ * safe; every thread that detects needs its own instance. The time the model took to load is kept so
+ * backends can be compared on the same device, next to the per-frame latency in {@link PipelineMetrics}.
+ */
+public interface FaceDetector {
+
+    /**
+     * Replaces the content of {@code out} with the faces found in a {@code CV_8UC1} gray or
+     * {@code CV_8UC3} RGB image, in image coordinates.
+     */
+    void detect(Mat image, FaceBoxes out);
+
+    /**
+     * Sets the pyramid scale factor, ignored by backends that do not scan a pyramid, and the range of
+     * face sizes to report, 0 for no limit. Used from the next call to {@link #detect} on.
+     */
+    void setParameters(double scaleFactor, int minFaceSize, int maxFaceSize);
+
+    String getName();
+
+    long getInitNanos();
+
+    void release();
+}
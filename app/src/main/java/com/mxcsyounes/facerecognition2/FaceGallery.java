@@ -0,0 +1,403 @@
+package com.mxcsyounes.facerecognition2;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Enrolled face descriptors kept row by row in one flat {@code short[]}, with their identity labels in
+ * a parallel {@code int[]}. Descriptor values in [0, 1] are quantized to 0..255 on the way in, which
+ * halves the memory a scan streams through compared to floats and turns the distance into an integer
+ * reduction the compiler can vectorize. Search is an exact nearest-neighbour scan until
+ * {@link #buildIndex} is called; after that only the descriptors in the few k-means cells closest to
+ * the query are considered, plus anything enrolled since the index was built. Synchronized, enrollment
+ * and matching may run on different threads.
+ * <p>
+ * The index works on pooled descriptors: every descriptor dimension belongs to one of a few groups,
+ * given at construction, and a pooled value is the Euclidean norm of its group. Pooling a descriptor
+ * into far fewer dimensions is what keeps training the cells, comparing with every centroid and
+ * ranking the members of the probed cells cheap; only the closest few members by pooled distance are
+ * compared in full.
+ */
+public final class FaceGallery {
+
+    private static final float QUANTIZATION = 255f;
+    private static final float DISTANCE_SCALE = 1f / (QUANTIZATION * QUANTIZATION);
+    // Members of the probed cells compared in full, the closest by pooled distance.
+    private static final int SHORTLIST = 32;
+
+    private final int dimension;
+    private final int[] poolGroups;
+    private final int pooledDimension;
+    private final short[] query;
+    private final short[] pooledQuery;
+    private final int[] poolSums;
+    private final int[] shortlistRows = new int[SHORTLIST];
+    private final int[] shortlistDistances = new int[SHORTLIST];
+    private short[] vectors;
+    private int[] labels;
+    private int size;
+    // Bumped by clear(), so an index built from the rows before it is not published after it.
+    private int generation;
+
+    // Inverted file index: pooled rows and centroids row by row, and the members of every cell packed
+    // in cellMembers between cellStart[c] and cellStart[c + 1].
+    private short[] pooledRows;
+    private short[] centroids;
+    private int[] cellStart;
+    private int[] cellMembers;
+    private int cells;
+    private int indexedSize;
+    private int probes;
+    private int[] centroidDistances = new int[0];
+    private int[] probeOrder = new int[0];
+
+    public FaceGallery(int dimension) {
+        this(dimension, 64);
+    }
+
+    public FaceGallery(int dimension, int initialCapacity) {
+        this(dimension, initialCapacity, identityGroups(dimension));
+    }
+
+    /**
+     * {@code poolGroups} holds, for every descriptor dimension, the pooled dimension the index folds it
+     * into, numbered from 0.
+     */
+    public FaceGallery(int dimension, int initialCapacity, int[] poolGroups) {
+        if (poolGroups.length != dimension) {
+            throw new IllegalArgumentException("pool groups for " + poolGroups.length + " of " + dimension + " dimensions");
+        }
+        this.dimension = dimension;
+        this.poolGroups = poolGroups.clone();
+        int groups = 0;
+        for (int group : poolGroups) {
+            groups = Math.max(groups, group + 1);
+        }
+        pooledDimension = groups;
+        query = new short[dimension];
+        pooledQuery = new short[groups];
+        poolSums = new int[groups];
+        vectors = new short[Math.max(1, initialCapacity) * dimension];
+        labels = new int[Math.max(1, initialCapacity)];
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getLabel(int index) {
+        return labels[index];
+    }
+
+    /**
+     * Quantizes {@code dimension} floats of {@code descriptor} from {@code offset} into a new row and
+     * returns it.
+     */
+    public synchronized int add(int label, float[] descriptor, int offset) {
+        if (size == labels.length) {
+            int capacity = size * 2;
+            vectors = Arrays.copyOf(vectors, capacity * dimension);
+            labels = Arrays.copyOf(labels, capacity);
+        }
+        quantize(descriptor, offset, vectors, size * dimension, dimension);
+        labels[size] = label;
+        return size++;
+    }
+
+    public synchronized void clear() {
+        size = 0;
+        generation++;
+        dropIndex();
+    }
+
+    /**
+     * Finds the enrolled descriptor closest to {@code descriptor} and writes it to {@code out}, with the
+     * squared Euclidean distance in descriptor units. Returns false when the gallery is empty.
+     */
+    public synchronized boolean nearest(float[] descriptor, Match out) {
+        quantize(descriptor, 0, query, 0, dimension);
+        int bestIndex = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        if (cells == 0) {
+            bestIndex = scanRange(0, size, bestIndex, bestDistance);
+        } else {
+            pool(poolGroups, query, 0, dimension, pooledQuery, 0, poolSums);
+            int probeCount = Math.min(probes, cells);
+            selectClosestCells(probeCount);
+            int shortlisted = shortlist(probeCount);
+            for (int s = 0; s < shortlisted; s++) {
+                int row = shortlistRows[s];
+                int distance = squaredDistance(query, 0, vectors, row * dimension, dimension);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    bestIndex = row;
+                }
+            }
+            bestIndex = scanRange(indexedSize, size, bestIndex, bestDistance);
+        }
+        out.index = bestIndex;
+        if (bestIndex < 0) {
+            out.distance = Float.MAX_VALUE;
+            return false;
+        }
+        out.distance = squaredDistance(query, 0, vectors, bestIndex * dimension, dimension) * DISTANCE_SCALE;
+        out.label = labels[bestIndex];
+        return true;
+    }
+
+    /**
+     * Clusters the current descriptors into {@code cellCount} k-means cells so {@link #nearest} only
+     * considers the {@code probeCount} cells closest to the query. The centroids are trained on at most
+     * {@code trainingSamples} randomly picked descriptors for {@code iterations} rounds, then every
+     * descriptor is assigned to its closest one. Approximate: a match just across a cell border can be
+     * missed, more probes trade speed for recall.
+     * <p>
+     * Runs without holding the gallery lock, so enrollment and matching go on meanwhile against the
+     * previous index; the new one is swapped in at the end. Meant for a background thread.
+     */
+    public void buildIndex(int cellCount, int probeCount, int trainingSamples, int iterations, long seed) {
+        short[] vectors;
+        int size;
+        int generation;
+        synchronized (this) {
+            vectors = this.vectors;
+            size = this.size;
+            generation = this.generation;
+        }
+        if (cellCount <= 1 || size < cellCount) {
+            synchronized (this) {
+                if (generation == this.generation) dropIndex();
+            }
+            return;
+        }
+        // Rows below size are never written again, so they can be read from the snapshot unlocked.
+        int pooled = pooledDimension;
+        short[] rows = new short[size * pooled];
+        int[] sums = new int[pooled];
+        for (int row = 0; row < size; row++) {
+            pool(poolGroups, vectors, row * dimension, dimension, rows, row * pooled, sums);
+        }
+
+        Random random = new Random(seed);
+        int samples = Math.min(size, Math.max(cellCount, trainingSamples));
+        int[] order = new int[size];
+        for (int row = 0; row < size; row++) {
+            order[row] = row;
+        }
+        // Partial Fisher-Yates shuffle, the first samples rows are the training sample.
+        for (int s = 0; s < samples; s++) {
+            int pick = s + random.nextInt(size - s);
+            int swap = order[s];
+            order[s] = order[pick];
+            order[pick] = swap;
+        }
+        short[] centers = new short[cellCount * pooled];
+        for (int c = 0; c < cellCount; c++) {
+            System.arraycopy(rows, order[c] * pooled, centers, c * pooled, pooled);
+        }
+        long[] centerSums = new long[cellCount * pooled];
+        int[] members = new int[cellCount];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            Arrays.fill(centerSums, 0L);
+            Arrays.fill(members, 0);
+            for (int s = 0; s < samples; s++) {
+                int from = order[s] * pooled;
+                int c = closestCenter(rows, from, centers, cellCount, pooled);
+                members[c]++;
+                int to = c * pooled;
+                for (int d = 0; d < pooled; d++) {
+                    centerSums[to + d] += rows[from + d];
+                }
+            }
+            for (int c = 0; c < cellCount; c++) {
+                int to = c * pooled;
+                if (members[c] == 0) {
+                    // Reseeds an empty cell on a random training descriptor.
+                    System.arraycopy(rows, order[random.nextInt(samples)] * pooled, centers, to, pooled);
+                    continue;
+                }
+                for (int d = 0; d < pooled; d++) {
+                    centers[to + d] = (short) ((centerSums[to + d] + members[c] / 2) / members[c]);
+                }
+            }
+        }
+
+        int[] assignment = new int[size];
+        int[] start = new int[cellCount + 1];
+        for (int row = 0; row < size; row++) {
+            assignment[row] = closestCenter(rows, row * pooled, centers, cellCount, pooled);
+            start[assignment[row] + 1]++;
+        }
+        for (int c = 0; c < cellCount; c++) {
+            start[c + 1] += start[c];
+        }
+        int[] fill = Arrays.copyOf(start, cellCount);
+        int[] packed = new int[size];
+        for (int row = 0; row < size; row++) {
+            packed[fill[assignment[row]]++] = row;
+        }
+        synchronized (this) {
+            if (generation != this.generation) return;
+            pooledRows = rows;
+            centroids = centers;
+            cellStart = start;
+            cellMembers = packed;
+            cells = cellCount;
+            indexedSize = size;
+            probes = Math.max(1, probeCount);
+            centroidDistances = new int[cellCount];
+            probeOrder = new int[cellCount];
+        }
+    }
+
+    /**
+     * How many descriptors the current index covers, 0 without one. Rows enrolled since are scanned in
+     * full on every search.
+     */
+    public synchronized int getIndexedSize() {
+        return indexedSize;
+    }
+
+    public synchronized boolean isIndexed() {
+        return cells > 0;
+    }
+
+    /**
+     * Squared Euclidean distance between quantized rows. Kept to one straight integer multiply-add
+     * loop over contiguous arrays so the compiler can vectorize it; with values up to 255 the sum
+     * cannot overflow below 33000 dimensions.
+     */
+    static int squaredDistance(short[] a, int aOffset, short[] b, int bOffset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            int diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static void quantize(float[] source, int sourceOffset, short[] target, int targetOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            float value = source[sourceOffset + i];
+            target[targetOffset + i] = (short) (value <= 0f ? 0 : value >= 1f ? QUANTIZATION : value * QUANTIZATION + 0.5f);
+        }
+    }
+
+    private int scanRange(int from, int to, int bestIndex, int bestDistance) {
+        short[] vectors = this.vectors;
+        short[] query = this.query;
+        int dimension = this.dimension;
+        for (int row = from; row < to; row++) {
+            int distance = squaredDistance(query, 0, vectors, row * dimension, dimension);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestIndex = row;
+            }
+        }
+        return bestIndex;
+    }
+
+    private void selectClosestCells(int count) {
+        int pooled = pooledDimension;
+        for (int c = 0; c < cells; c++) {
+            centroidDistances[c] = squaredDistance(pooledQuery, 0, centroids, c * pooled, pooled);
+            probeOrder[c] = c;
+        }
+        // Partial selection sort, only the first few cells are needed.
+        for (int p = 0; p < count; p++) {
+            int best = p;
+            for (int c = p + 1; c < cells; c++) {
+                if (centroidDistances[probeOrder[c]] < centroidDistances[probeOrder[best]]) best = c;
+            }
+            int swap = probeOrder[p];
+            probeOrder[p] = probeOrder[best];
+            probeOrder[best] = swap;
+        }
+    }
+
+    /**
+     * Collects the members of the first {@code probeCount} cells of probeOrder closest to the query by
+     * pooled distance into shortlistRows and returns how many there are.
+     */
+    private int shortlist(int probeCount) {
+        int pooled = pooledDimension;
+        int count = 0;
+        int worst = 0;
+        for (int p = 0; p < probeCount; p++) {
+            int cell = probeOrder[p];
+            for (int m = cellStart[cell]; m < cellStart[cell + 1]; m++) {
+                int row = cellMembers[m];
+                int distance = squaredDistance(pooledQuery, 0, pooledRows, row * pooled, pooled);
+                if (count < SHORTLIST) {
+                    shortlistRows[count] = row;
+                    shortlistDistances[count] = distance;
+                    if (distance > shortlistDistances[worst]) worst = count;
+                    count++;
+                } else if (distance < shortlistDistances[worst]) {
+                    shortlistRows[worst] = row;
+                    shortlistDistances[worst] = distance;
+                    for (int s = 0; s < SHORTLIST; s++) {
+                        if (shortlistDistances[s] > shortlistDistances[worst]) worst = s;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private void dropIndex() {
+        cells = 0;
+        indexedSize = 0;
+        pooledRows = null;
+        centroids = null;
+        cellStart = null;
+        cellMembers = null;
+    }
+
+    private static int closestCenter(short[] rows, int offset, short[] centers, int cellCount, int length) {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int c = 0; c < cellCount; c++) {
+            int distance = squaredDistance(rows, offset, centers, c * length, length);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Writes the norm of every group of the quantized row at {@code offset} to {@code target}, which
+     * stays on the 0..255 scale when the groups hold unit-norm parts of the descriptor.
+     */
+    private static void pool(int[] groups, short[] source, int offset, int length, short[] target, int targetOffset,
+                             int[] sums) {
+        Arrays.fill(sums, 0);
+        for (int d = 0; d < length; d++) {
+            int value = source[offset + d];
+            sums[groups[d]] += value * value;
+        }
+        for (int g = 0; g < sums.length; g++) {
+            target[targetOffset + g] = (short) Math.min((int) QUANTIZATION, (int) (Math.sqrt(sums[g]) + 0.5));
+        }
+    }
+
+    private static int[] identityGroups(int dimension) {
+        int[] groups = new int[dimension];
+        for (int d = 0; d < dimension; d++) {
+            groups[d] = d;
+        }
+        return groups;
+    }
+
+    public static final class Match {
+        public int index = -1;
+        public int label;
+        public float distance;
+    }
+}
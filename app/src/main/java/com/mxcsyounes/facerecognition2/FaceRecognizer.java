@@ -0,0 +1,202 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Labels detected faces with the identity of the closest enrolled sample. Faces are cut out of the
+ * frame, turned upright, normalized the same way {@link FaceSampleStore} stores them, described with
+ * {@link LbpDescriptor} and matched against a {@link FaceGallery}. Faces further than
+ * {@code maxDistance} from every sample keep {@link FaceBoxes#NO_LABEL}. With a
+ * {@link RecognitionCache}, tracked faces reuse their earlier result and only new or changed tracks
+ * are described and matched.
+ * <p>
+ * {@link #recognize} must be called from a single thread; {@link #enroll} and {@link #optimize} may
+ * run on other ones.
+ */
+public final class FaceRecognizer {
+
+    private static final int GRID = 4;
+    private static final int INDEX_THRESHOLD = 1024;
+    // Unindexed samples are scanned in full on every search, past this many the index is rebuilt.
+    private static final int INDEX_MAX_TAIL = 256;
+    private static final int INDEX_TRAINING_SAMPLES = 4096;
+    private static final int INDEX_ITERATIONS = 4;
+    private static final int INDEX_PROBES = 8;
+    // A stale label is kept when the face still looks this close to when it was recognized.
+    private static final float VERIFY_DISTANCE_FRACTION = 0.25f;
+
+    private final float maxDistance;
+    private final FaceGallery gallery;
+    private final Worker recognizeWorker;
+    private final Worker enrollWorker;
+    private final FaceGallery.Match match = new FaceGallery.Match();
+    private final Mat upright = new Mat();
+    private final AtomicBoolean indexQueued = new AtomicBoolean();
+
+    public FaceRecognizer(int cropSize, float maxDistance) {
+        this.maxDistance = maxDistance;
+        recognizeWorker = new Worker(cropSize);
+        enrollWorker = new Worker(cropSize);
+        LbpDescriptor descriptor = recognizeWorker.descriptor;
+        gallery = new FaceGallery(descriptor.getLength(), 64, descriptor.invariantGroups());
+    }
+
+    public FaceGallery getGallery() {
+        return gallery;
+    }
+
+    /**
+     * Enrolls an already normalized {@code cropSize} square crop, as read from {@link FaceSampleStore}.
+     */
+    public void enroll(int label, Mat crop) {
+        synchronized (enrollWorker) {
+            enrollWorker.describeNormalized(crop);
+            gallery.add(label, enrollWorker.features, 0);
+        }
+    }
+
+    /**
+     * Builds the coarse index once the gallery is large enough for exact search to cost more than
+     * probing a few cells, and rebuilds it when enough samples were enrolled since. The cell count
+     * balances comparing against every centroid with ranking the members of the probed cells.
+     * Matching goes on against the previous index meanwhile.
+     */
+    public void optimize() {
+        if (!needsIndex()) return;
+        int size = gallery.size();
+        int cells = (int) Math.sqrt((double) size * INDEX_PROBES);
+        gallery.buildIndex(cells, INDEX_PROBES, INDEX_TRAINING_SAMPLES, INDEX_ITERATIONS, size);
+    }
+
+    /**
+     * Runs {@link #optimize} on {@code executor} when it would do anything and is not already queued,
+     * so enrollment never waits for the index.
+     */
+    public void optimizeLater(Executor executor) {
+        if (!needsIndex() || !indexQueued.compareAndSet(false, true)) return;
+        executor.execute(() -> {
+            indexQueued.set(false);
+            optimize();
+        });
+    }
+
+    private boolean needsIndex() {
+        int size = gallery.size();
+        return size >= INDEX_THRESHOLD && size - gallery.getIndexedSize() >= INDEX_MAX_TAIL;
+    }
+
+    /**
+     * Sets the label of every box in {@code faces}, given in the coordinates of {@code gray}. Boxes with
+     * a track id go through {@code cache} when one is given. Returns how many faces were matched
+     * against the gallery.
+     */
+    public int recognize(Mat gray, FaceBoxes faces, int rotationDegrees, RecognitionCache cache, long nowNanos) {
+        int searched = 0;
+        int gallerySize = gallery.size();
+        for (int i = 0; i < faces.size(); i++) {
+            int state = RecognitionCache.MISS;
+            if (cache != null && faces.id(i) != FaceBoxes.NO_ID) {
+                state = cache.lookup(faces.id(i), faces.width(i), faces.height(i), rotationDegrees, gallerySize, nowNanos);
+                if (state == RecognitionCache.HIT) {
+                    faces.setLabel(i, cache.getLabel());
+                    continue;
+                }
+            }
+            Mat face = gray.submat(faces.y(i), faces.y(i) + faces.height(i), faces.x(i), faces.x(i) + faces.width(i));
+            Mat source = face;
+            if (rotationDegrees != 0) {
+                rotateUpright(face, upright, rotationDegrees);
+                source = upright;
+            }
+            recognizeWorker.describe(source);
+            face.release();
+            if (state == RecognitionCache.STALE
+                    && squaredDistance(recognizeWorker.features, cache.getDescriptor()) <= maxDistance * VERIFY_DISTANCE_FRACTION) {
+                cache.confirm(nowNanos);
+                faces.setLabel(i, cache.getLabel());
+                continue;
+            }
+            searched++;
+            boolean found = gallery.nearest(recognizeWorker.features, match) && match.distance <= maxDistance;
+            int label = found ? match.label : FaceBoxes.NO_LABEL;
+            faces.setLabel(i, label);
+            if (cache != null && faces.id(i) != FaceBoxes.NO_ID) {
+                cache.put(label, found ? 1f - match.distance / maxDistance : 0f, recognizeWorker.features,
+                        faces.width(i), faces.height(i), rotationDegrees, gallerySize, nowNanos);
+            }
+        }
+        return searched;
+    }
+
+    public int getDescriptorLength() {
+        return gallery.getDimension();
+    }
+
+    public void release() {
+        upright.release();
+        recognizeWorker.release();
+        enrollWorker.release();
+    }
+
+    private static float squaredDistance(float[] a, float[] b) {
+        float sum = 0f;
+        for (int i = 0; i < a.length; i++) {
+            float diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    static void rotateUpright(Mat src, Mat dst, int rotationDegrees) {
+        switch (rotationDegrees) {
+            case 90:
+                Core.rotate(src, dst, Core.ROTATE_90_CLOCKWISE);
+                break;
+            case 180:
+                Core.rotate(src, dst, Core.ROTATE_180);
+                break;
+            case 270:
+                Core.rotate(src, dst, Core.ROTATE_90_COUNTERCLOCKWISE);
+                break;
+            default:
+                src.copyTo(dst);
+                break;
+        }
+    }
+
+    private static final class Worker {
+        final LbpDescriptor descriptor = new LbpDescriptor(GRID, GRID);
+        final float[] features = new float[descriptor.getLength()];
+        final Mat normalized = new Mat();
+        final Size size;
+        final byte[] pixels;
+        final int cropSize;
+
+        Worker(int cropSize) {
+            this.cropSize = cropSize;
+            size = new Size(cropSize, cropSize);
+            pixels = new byte[cropSize * cropSize];
+        }
+
+        void describe(Mat face) {
+            Imgproc.resize(face, normalized, size, 0, 0, Imgproc.INTER_AREA);
+            Imgproc.equalizeHist(normalized, normalized);
+            describeNormalized(normalized);
+        }
+
+        void describeNormalized(Mat crop) {
+            crop.get(0, 0, pixels);
+            descriptor.compute(pixels, cropSize, cropSize, features, 0);
+        }
+
+        void release() {
+            normalized.release();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only store of labelled grayscale face crops in one memory-mapped segment file.
+ * <p>
+ * The file starts with a header (magic, version, crop width and height, record count) followed by
+ * fixed-size records: label, flags and timestamp, then {@code cropWidth * cropHeight} pixels. Opening
+ * only reads the record headers into an in-memory index, and crops are read back as Mats over the
+ * mapping without copying. Deleted records keep their slot until {@link #compact()}.
+ * Not thread safe.
+ */
+public final class FaceSampleStore implements AutoCloseable {
+
+    public static final int FLAG_DELETED = 1;
+
+    private static final int MAGIC = 0x46435331; // "FCS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int COUNT_OFFSET = 16;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int MIN_CAPACITY = 64;
+
+    private final File file;
+    private final int cropWidth;
+    private final int cropHeight;
+    private final int recordSize;
+    private final Size cropSize;
+    // Mappings replaced by growth or compaction stay referenced so Mats handed out earlier stay valid.
+    private final List<MappedByteBuffer> retiredMappings = new ArrayList<>();
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer mapping;
+    private int capacity;
+    private int count;
+    private int[] labels = new int[MIN_CAPACITY];
+    private int[] flags = new int[MIN_CAPACITY];
+
+    private FaceSampleStore(File file, int cropWidth, int cropHeight) {
+        this.file = file;
+        this.cropWidth = cropWidth;
+        this.cropHeight = cropHeight;
+        this.recordSize = RECORD_HEADER_SIZE + cropWidth * cropHeight;
+        this.cropSize = new Size(cropWidth, cropHeight);
+    }
+
+    /**
+     * Opens the store at {@code file}, creating it if needed. An existing file must have been written
+     * with the same crop size.
+     */
+    public static FaceSampleStore open(File file, int cropWidth, int cropHeight) throws IOException {
+        if (cropWidth <= 0 || cropHeight <= 0) {
+            throw new IllegalArgumentException("invalid crop size " + cropWidth + "x" + cropHeight);
+        }
+        FaceSampleStore store = new FaceSampleStore(file, cropWidth, cropHeight);
+        try {
+            store.load();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void load() throws IOException {
+        boolean existing = file.length() >= HEADER_SIZE;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        if (!existing) {
+            map(MIN_CAPACITY);
+            mapping.putInt(0, MAGIC);
+            mapping.putInt(4, VERSION);
+            mapping.putInt(8, cropWidth);
+            mapping.putInt(12, cropHeight);
+            mapping.putInt(COUNT_OFFSET, 0);
+            return;
+        }
+        int fileCapacity = (int) ((file.length() - HEADER_SIZE) / recordSize);
+        map(Math.max(fileCapacity, MIN_CAPACITY));
+        if (mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a face sample store");
+        }
+        if (mapping.getInt(8) != cropWidth || mapping.getInt(12) != cropHeight) {
+            throw new IOException(file + " holds " + mapping.getInt(8) + "x" + mapping.getInt(12)
+                    + " crops, expected " + cropWidth + "x" + cropHeight);
+        }
+        int storedCount = mapping.getInt(COUNT_OFFSET);
+        if (storedCount < 0 || storedCount > fileCapacity) {
+            throw new IOException(file + " is truncated: " + storedCount + " records, room for " + fileCapacity);
+        }
+        ensureIndexCapacity(storedCount);
+        for (int i = 0; i < storedCount; i++) {
+            int offset = offsetOf(i);
+            labels[i] = mapping.getInt(offset);
+            flags[i] = mapping.getInt(offset + 4);
+        }
+        count = storedCount;
+    }
+
+    /**
+     * Appends a crop, resizing {@code face} (single channel, any size) to the store's crop size and
+     * equalizing its histogram directly in the mapped record. Returns the new record's index.
+     */
+    public int append(int label, long timestamp, Mat face) throws IOException {
+        if (face.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("face crop must be CV_8UC1, got " + CvType.typeToString(face.type()));
+        }
+        if (count == capacity) {
+            grow(capacity * 2);
+        }
+        int index = count;
+        int offset = offsetOf(index);
+        mapping.putInt(offset, label);
+        mapping.putInt(offset + 4, 0);
+        mapping.putLong(offset + 8, timestamp);
+        Mat record = wrapPixels(offset);
+        Imgproc.resize(face, record, cropSize, 0, 0, Imgproc.INTER_AREA);
+        Imgproc.equalizeHist(record, record);
+        record.release();
+
+        ensureIndexCapacity(index + 1);
+        labels[index] = label;
+        flags[index] = 0;
+        count = index + 1;
+        // The count is written last, so a crash mid-append leaves the previous records intact.
+        mapping.putInt(COUNT_OFFSET, count);
+        return index;
+    }
+
+    /**
+     * Returns the crop of record {@code index} as a Mat over the mapped file. The pixels are not
+     * copied; the Mat stays valid until the store is closed and must not be written to.
+     */
+    public Mat getCrop(int index) {
+        checkIndex(index);
+        return wrapPixels(offsetOf(index));
+    }
+
+    public int getLabel(int index) {
+        checkIndex(index);
+        return labels[index];
+    }
+
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return mapping.getLong(offsetOf(index) + 8);
+    }
+
+    public boolean isDeleted(int index) {
+        checkIndex(index);
+        return (flags[index] & FLAG_DELETED) != 0;
+    }
+
+    public void delete(int index) {
+        checkIndex(index);
+        flags[index] |= FLAG_DELETED;
+        mapping.putInt(offsetOf(index) + 4, flags[index]);
+    }
+
+    /**
+     * Number of records, including deleted ones.
+     */
+    public int size() {
+        return count;
+    }
+
+    public int getLiveCount() {
+        int live = 0;
+        for (int i = 0; i < count; i++) {
+            if ((flags[i] & FLAG_DELETED) == 0) live++;
+        }
+        return live;
+    }
+
+    public int getCropWidth() {
+        return cropWidth;
+    }
+
+    public int getCropHeight() {
+        return cropHeight;
+    }
+
+    /**
+     * Rewrites the store without its deleted records. Indices of the remaining records shift down;
+     * Mats returned before stay readable but no longer match their index.
+     */
+    public int compact() throws IOException {
+        int live = getLiveCount();
+        int removed = count - live;
+        if (removed == 0) {
+            return 0;
+        }
+        File partial = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(partial, "rw");
+             FileChannel outChannel = out.getChannel()) {
+            out.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(cropWidth).putInt(cropHeight).putInt(live);
+            header.rewind();
+            writeFully(outChannel, header);
+            ByteBuffer source = mapping.duplicate();
+            for (int i = 0; i < count; i++) {
+                if ((flags[i] & FLAG_DELETED) != 0) continue;
+                int offset = offsetOf(i);
+                source.limit(offset + recordSize).position(offset);
+                writeFully(outChannel, source);
+            }
+            outChannel.force(false);
+        }
+        // Renamed over the open file first: until the new file is mapped the store keeps working on the
+        // old one, which stays readable after being unlinked.
+        if (!partial.renameTo(file)) {
+            partial.delete();
+            throw new IOException("could not move " + partial + " to " + file);
+        }
+        RandomAccessFile oldRaf = raf;
+        MappedByteBuffer oldMapping = mapping;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        try {
+            map(Math.max(live, MIN_CAPACITY));
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            raf = oldRaf;
+            channel = oldRaf.getChannel();
+            throw e;
+        }
+        retiredMappings.add(oldMapping);
+        oldRaf.close();
+        int write = 0;
+        for (int i = 0; i < count; i++) {
+            if ((flags[i] & FLAG_DELETED) != 0) continue;
+            labels[write] = labels[i];
+            flags[write] = flags[i];
+            write++;
+        }
+        count = live;
+        return removed;
+    }
+
+    /**
+     * Flushes the mapped records to storage.
+     */
+    public void flush() {
+        if (mapping != null) {
+            mapping.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        mapping = null;
+        retiredMappings.clear();
+        if (raf != null) {
+            raf.close();
+            raf = null;
+            channel = null;
+        }
+    }
+
+    private void grow(int newCapacity) throws IOException {
+        mapping.force();
+        retiredMappings.add(mapping);
+        map(newCapacity);
+    }
+
+    private void map(int recordCapacity) throws IOException {
+        long length = HEADER_SIZE + (long) recordCapacity * recordSize;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("face sample store would exceed 2 GB");
+        }
+        if (raf.length() < length) {
+            raf.setLength(length);
+        }
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        capacity = recordCapacity;
+    }
+
+    private Mat wrapPixels(int recordOffset) {
+        ByteBuffer pixels = mapping.duplicate();
+        int start = recordOffset + RECORD_HEADER_SIZE;
+        pixels.limit(start + cropWidth * cropHeight).position(start);
+        return new Mat(cropHeight, cropWidth, CvType.CV_8UC1, pixels.slice());
+    }
+
+    private int offsetOf(int index) {
+        return HEADER_SIZE + index * recordSize;
+    }
+
+    private void ensureIndexCapacity(int needed) {
+        if (needed > labels.length) {
+            int length = Math.max(needed, labels.length * 2);
+            labels = Arrays.copyOf(labels, length);
+            flags = Arrays.copyOf(flags, length);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + count);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
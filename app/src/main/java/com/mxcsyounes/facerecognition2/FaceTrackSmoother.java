@@ -0,0 +1,108 @@
+package com.mxcsyounes.facerecognition2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Smooths face boxes over time with one {@link BoxKalmanFilter} per track and predicts where the
+ * boxes are at an arbitrary time, so the overlay can be drawn at display rate while detection runs
+ * slower. Boxes are matched to tracks by track id, or by overlap when they carry no id.
+ * Updated from the analysis thread and read from the UI thread.
+ */
+public final class FaceTrackSmoother {
+
+    private static final float MIN_OVERLAP = 0.3f;
+
+    private final long maxAheadNanos;
+    private final long maxAgeNanos;
+    private final List<Track> tracks = new ArrayList<>();
+    private final List<Track> spareTracks = new ArrayList<>();
+    private final FaceBoxes predicted = new FaceBoxes();
+    private int nextAnonymousId = -2;
+
+    public FaceTrackSmoother(long maxAheadNanos, long maxAgeNanos) {
+        this.maxAheadNanos = maxAheadNanos;
+        this.maxAgeNanos = maxAgeNanos;
+    }
+
+    public synchronized void update(FaceBoxes faces, long timestampNanos) {
+        for (Track track : tracks) {
+            track.updated = false;
+        }
+        for (int i = 0; i < faces.size(); i++) {
+            Track track = findTrack(faces, i, timestampNanos);
+            if (track == null) {
+                track = spareTracks.isEmpty() ? new Track() : spareTracks.remove(spareTracks.size() - 1);
+                track.id = faces.id(i) != FaceBoxes.NO_ID ? faces.id(i) : nextAnonymousId--;
+                track.filter.reset(faces.x(i), faces.y(i), faces.width(i), faces.height(i), timestampNanos);
+                track.label = FaceBoxes.NO_LABEL;
+                tracks.add(track);
+            } else {
+                track.filter.update(faces.x(i), faces.y(i), faces.width(i), faces.height(i), timestampNanos);
+            }
+            // Every result carries the current recognition, NO_LABEL included: a face that stops
+            // matching loses its label instead of keeping the last one.
+            track.label = faces.label(i);
+            track.updated = true;
+        }
+        // Tracks missing from this frame coast on their prediction until they are too old.
+        for (int i = tracks.size() - 1; i >= 0; i--) {
+            Track track = tracks.get(i);
+            if (!track.updated && timestampNanos - track.filter.getLastUpdateNanos() > maxAgeNanos) {
+                spareTracks.add(tracks.remove(i));
+            }
+        }
+    }
+
+    /**
+     * Fills {@code out} with the boxes predicted for {@code timestampNanos}, ids and labels of the last update included. Returns
+     * false once no track is recent enough to be shown.
+     */
+    public synchronized boolean predict(long timestampNanos, FaceBoxes out) {
+        out.clear();
+        for (Track track : tracks) {
+            if (timestampNanos - track.filter.getLastUpdateNanos() > maxAgeNanos) continue;
+            out.add(0, 0, 0, 0, track.id);
+            out.setLabel(out.size() - 1, track.label);
+            track.filter.predict(timestampNanos, maxAheadNanos, out, out.size() - 1);
+        }
+        return !out.isEmpty();
+    }
+
+    public synchronized void clear() {
+        spareTracks.addAll(tracks);
+        tracks.clear();
+    }
+
+    private Track findTrack(FaceBoxes faces, int index, long timestampNanos) {
+        int id = faces.id(index);
+        if (id != FaceBoxes.NO_ID) {
+            for (Track track : tracks) {
+                if (track.id == id) return track;
+            }
+            return null;
+        }
+        Track best = null;
+        float bestOverlap = MIN_OVERLAP;
+        predicted.clear();
+        predicted.add(0, 0, 0, 0);
+        for (Track track : tracks) {
+            if (track.updated || track.id >= 0) continue;
+            track.filter.predict(timestampNanos, maxAheadNanos, predicted, 0);
+            float overlap = FaceBoxes.intersectionOverUnion(predicted.x(0), predicted.y(0), predicted.width(0), predicted.height(0),
+                    faces.x(index), faces.y(index), faces.width(index), faces.height(index));
+            if (overlap >= bestOverlap) {
+                bestOverlap = overlap;
+                best = track;
+            }
+        }
+        return best;
+    }
+
+    private static final class Track {
+        final BoxKalmanFilter filter = new BoxKalmanFilter(600, 200, 4);
+        int id;
+        int label;
+        boolean updated;
+    }
+}
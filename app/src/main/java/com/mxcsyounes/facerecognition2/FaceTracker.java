@@ -0,0 +1,203 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detect-then-track: the cascade only runs on keyframes, every {@code keyframeInterval} frames or
+ * as soon as a track loses confidence. In between, each face is followed by normalized template
+ * matching on a downscaled search window around its last position. Track ids are kept across
+ * keyframes by matching new detections to existing tracks on overlap.
+ */
+public final class FaceTracker {
+
+    private static final int TEMPLATE_SIZE = 32;
+    private static final float SEARCH_MARGIN = 0.5f;
+    private static final float MIN_OVERLAP = 0.3f;
+
+    private int keyframeInterval;
+    private final double minConfidence;
+    private final List<Track> tracks = new ArrayList<>();
+    private final List<Track> spareTracks = new ArrayList<>();
+    private final Mat scaledWindow = new Mat();
+    private final Mat matchResult = new Mat();
+    private final Size scaledSize = new Size();
+    private final Rect window = new Rect();
+    private float[] scores = new float[0];
+    private int framesSinceKeyframe;
+    private int nextTrackId = 1;
+    private boolean lostTrack;
+
+    public FaceTracker(int keyframeInterval, double minConfidence) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("keyframe interval must be at least 1");
+        }
+        this.keyframeInterval = keyframeInterval;
+        this.minConfidence = minConfidence;
+    }
+
+    public synchronized void setKeyframeInterval(int keyframeInterval) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("keyframe interval must be at least 1");
+        }
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    public synchronized boolean needsDetection() {
+        return lostTrack || tracks.isEmpty() || framesSinceKeyframe >= keyframeInterval;
+    }
+
+    /**
+     * Starts a new keyframe: detections are matched to existing tracks, unmatched detections start
+     * new tracks and tracks without a detection are dropped. Ids are written back into {@code faces}.
+     */
+    public synchronized void onDetections(Mat gray, FaceBoxes faces) {
+        for (Track track : tracks) {
+            track.matched = false;
+        }
+        for (int i = 0; i < faces.size(); i++) {
+            Track best = null;
+            float bestOverlap = MIN_OVERLAP;
+            for (Track track : tracks) {
+                if (track.matched) continue;
+                float overlap = FaceBoxes.intersectionOverUnion(track.x, track.y, track.width, track.height,
+                        faces.x(i), faces.y(i), faces.width(i), faces.height(i));
+                if (overlap >= bestOverlap) {
+                    bestOverlap = overlap;
+                    best = track;
+                }
+            }
+            if (best == null) {
+                best = obtainTrack();
+                best.id = nextTrackId++;
+                tracks.add(best);
+            }
+            best.matched = true;
+            best.set(faces.x(i), faces.y(i), faces.width(i), faces.height(i));
+            best.confidence = 1.0;
+            best.updateTemplate(gray);
+            faces.setId(i, best.id);
+        }
+        for (int i = tracks.size() - 1; i >= 0; i--) {
+            if (!tracks.get(i).matched) {
+                spareTracks.add(tracks.remove(i));
+            }
+        }
+        framesSinceKeyframe = 0;
+        lostTrack = false;
+    }
+
+    /**
+     * Moves every track to the best template match inside a window around its last position.
+     * A match below the confidence threshold drops the track and forces detection on the next frame.
+     */
+    public synchronized void track(Mat gray) {
+        framesSinceKeyframe++;
+        for (int i = tracks.size() - 1; i >= 0; i--) {
+            Track track = tracks.get(i);
+            if (!follow(gray, track)) {
+                spareTracks.add(tracks.remove(i));
+                lostTrack = true;
+            }
+        }
+    }
+
+    public synchronized void getFaces(FaceBoxes out) {
+        out.clear();
+        for (Track track : tracks) {
+            out.add(track.x, track.y, track.width, track.height, track.id);
+        }
+    }
+
+    public synchronized void reset() {
+        spareTracks.addAll(tracks);
+        tracks.clear();
+        framesSinceKeyframe = 0;
+        lostTrack = false;
+    }
+
+    public synchronized void release() {
+        reset();
+        for (Track track : spareTracks) {
+            track.template.release();
+        }
+        spareTracks.clear();
+        scaledWindow.release();
+        matchResult.release();
+    }
+
+    private boolean follow(Mat gray, Track track) {
+        int marginX = Math.round(track.width * SEARCH_MARGIN);
+        int marginY = Math.round(track.height * SEARCH_MARGIN);
+        window.x = Math.max(0, track.x - marginX);
+        window.y = Math.max(0, track.y - marginY);
+        window.width = Math.min(gray.cols(), track.x + track.width + marginX) - window.x;
+        window.height = Math.min(gray.rows(), track.y + track.height + marginY) - window.y;
+        if (window.width < track.width || window.height < track.height) {
+            return false;
+        }
+
+        double scale = (double) TEMPLATE_SIZE / track.width;
+        scaledSize.width = Math.max(TEMPLATE_SIZE, Math.round(window.width * scale));
+        scaledSize.height = Math.max(track.template.rows(), Math.round(window.height * scale));
+        Mat searchArea = gray.submat(window);
+        Imgproc.resize(searchArea, scaledWindow, scaledSize, 0, 0, Imgproc.INTER_AREA);
+        searchArea.release();
+        Imgproc.matchTemplate(scaledWindow, track.template, matchResult, Imgproc.TM_CCOEFF_NORMED);
+
+        int resultCols = matchResult.cols();
+        int resultSize = resultCols * matchResult.rows();
+        if (scores.length < resultSize) {
+            scores = new float[resultSize];
+        }
+        matchResult.get(0, 0, scores);
+        int bestIndex = 0;
+        for (int i = 1; i < resultSize; i++) {
+            if (scores[i] > scores[bestIndex]) bestIndex = i;
+        }
+        track.confidence = scores[bestIndex];
+        if (track.confidence < minConfidence) {
+            return false;
+        }
+        track.x = window.x + (int) Math.round((bestIndex % resultCols) / scale);
+        track.y = window.y + (int) Math.round((bestIndex / resultCols) / scale);
+        return true;
+    }
+
+    private Track obtainTrack() {
+        int last = spareTracks.size() - 1;
+        return last >= 0 ? spareTracks.remove(last) : new Track();
+    }
+
+    private static final class Track {
+        final Mat template = new Mat();
+        final Size templateSize = new Size();
+        int id;
+        int x;
+        int y;
+        int width;
+        int height;
+        double confidence;
+        boolean matched;
+
+        void set(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        void updateTemplate(Mat gray) {
+            templateSize.width = TEMPLATE_SIZE;
+            templateSize.height = Math.max(1, Math.round((double) TEMPLATE_SIZE * height / width));
+            Mat face = gray.submat(y, y + height, x, x + width);
+            Imgproc.resize(face, template, templateSize, 0, 0, Imgproc.INTER_AREA);
+            face.release();
+        }
+    }
+}
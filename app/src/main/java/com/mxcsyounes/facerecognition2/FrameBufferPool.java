@@ -0,0 +1,79 @@
+package com.mxcsyounes.facerecognition2;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of per-frame buffers for a single frame size. Frames are borrowed with {@link #acquire}
+ * and handed back with {@link #release}; when the requested size changes the idle frames of the
+ * old size are disposed and frames of the old size returned later are disposed instead of pooled.
+ */
+public final class FrameBufferPool<T extends FrameBufferPool.Frame> {
+
+    private final Factory<T> factory;
+    private final int maxIdle;
+    private final ArrayDeque<T> idle;
+    private int width;
+    private int height;
+    private int created;
+
+    public FrameBufferPool(Factory<T> factory, int maxIdle) {
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+        this.idle = new ArrayDeque<>(maxIdle);
+    }
+
+    public synchronized T acquire(int width, int height) {
+        if (width != this.width || height != this.height) {
+            disposeIdle();
+            this.width = width;
+            this.height = height;
+        }
+        T frame = idle.pollFirst();
+        if (frame == null) {
+            frame = factory.create(width, height);
+            created++;
+        }
+        return frame;
+    }
+
+    public synchronized void release(T frame) {
+        if (frame.getWidth() != width || frame.getHeight() != height || idle.size() >= maxIdle) {
+            factory.dispose(frame);
+        } else {
+            idle.addFirst(frame);
+        }
+    }
+
+    public synchronized void clear() {
+        disposeIdle();
+        width = 0;
+        height = 0;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized int getCreatedCount() {
+        return created;
+    }
+
+    private void disposeIdle() {
+        T frame;
+        while ((frame = idle.pollFirst()) != null) {
+            factory.dispose(frame);
+        }
+    }
+
+    public interface Frame {
+        int getWidth();
+
+        int getHeight();
+    }
+
+    public interface Factory<T extends Frame> {
+        T create(int width, int height);
+
+        void dispose(T frame);
+    }
+}
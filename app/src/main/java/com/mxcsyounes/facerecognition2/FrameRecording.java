@@ -0,0 +1,224 @@
+package com.mxcsyounes.facerecognition2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Raw YUV_420_888 analysis frames in one memory-mapped file, written while the camera runs and read
+ * back by {@link FrameReplayer} to drive the analyzer without a camera.
+ * <p>
+ * After a header (magic, version, frame count) every frame is stored as its record size, timestamp,
+ * rotation, width and height, then for each of the Y, U and V planes its row stride, pixel stride,
+ * length and bytes exactly as the camera delivered them. The frame count is written last, so a
+ * recording cut short by a crash still holds every completed frame. Not thread safe.
+ */
+public final class FrameRecording implements AutoCloseable {
+
+    public static final int PLANES = 3;
+
+    private static final int MAGIC = 0x46524331; // "FRC1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 8;
+    private static final int FRAME_HEADER_SIZE = 24;
+    private static final int PLANE_HEADER_SIZE = 12;
+    private static final long INITIAL_MAPPING = 16L * 1024 * 1024;
+
+    private final File file;
+    private final boolean writable;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer mapping;
+    private int[] frameOffsets = new int[64];
+    private int frameCount;
+    private int end = HEADER_SIZE;
+
+    private FrameRecording(File file, boolean writable) {
+        this.file = file;
+        this.writable = writable;
+    }
+
+    /**
+     * Starts a new recording at {@code file}, replacing anything already there.
+     */
+    public static FrameRecording create(File file) throws IOException {
+        FrameRecording recording = new FrameRecording(file, true);
+        try {
+            recording.raf = new RandomAccessFile(file, "rw");
+            recording.raf.setLength(0);
+            recording.channel = recording.raf.getChannel();
+            recording.map(INITIAL_MAPPING);
+            recording.mapping.putInt(0, MAGIC);
+            recording.mapping.putInt(4, VERSION);
+            recording.mapping.putInt(COUNT_OFFSET, 0);
+        } catch (IOException | RuntimeException e) {
+            recording.close();
+            throw e;
+        }
+        return recording;
+    }
+
+    /**
+     * Opens an existing recording for reading.
+     */
+    public static FrameRecording open(File file) throws IOException {
+        FrameRecording recording = new FrameRecording(file, false);
+        try {
+            recording.load();
+        } catch (IOException | RuntimeException e) {
+            recording.close();
+            throw e;
+        }
+        return recording;
+    }
+
+    private void load() throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+            throw new IOException(file + " is not a frame recording");
+        }
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a frame recording");
+        }
+        int count = mapping.getInt(COUNT_OFFSET);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            int recordSize = offset + 4 <= mapping.limit() ? mapping.getInt(offset) : 0;
+            if (recordSize < FRAME_HEADER_SIZE || offset + (long) recordSize > mapping.limit()) {
+                throw new IOException(file + " is truncated at frame " + i);
+            }
+            addFrameOffset(offset);
+            offset += recordSize;
+        }
+        end = offset;
+    }
+
+    /**
+     * Appends one frame. {@code planes}, {@code rowStrides} and {@code pixelStrides} hold the Y, U and
+     * V planes in that order; each buffer is read from its position to its limit and left unchanged.
+     */
+    public void append(int width, int height, long timestamp, int rotationDegrees,
+                       ByteBuffer[] planes, int[] rowStrides, int[] pixelStrides) throws IOException {
+        if (!writable) {
+            throw new IllegalStateException(file + " is open for reading");
+        }
+        int recordSize = FRAME_HEADER_SIZE;
+        for (int p = 0; p < PLANES; p++) {
+            recordSize += PLANE_HEADER_SIZE + planes[p].remaining();
+        }
+        if ((long) end + recordSize > mapping.capacity()) {
+            map(Math.max(mapping.capacity() * 2L, (long) end + recordSize));
+        }
+        int offset = end;
+        mapping.putInt(offset, recordSize);
+        mapping.putLong(offset + 4, timestamp);
+        mapping.putInt(offset + 12, rotationDegrees);
+        mapping.putInt(offset + 16, width);
+        mapping.putInt(offset + 20, height);
+        int position = offset + FRAME_HEADER_SIZE;
+        for (int p = 0; p < PLANES; p++) {
+            ByteBuffer plane = planes[p].duplicate();
+            int length = plane.remaining();
+            mapping.putInt(position, rowStrides[p]);
+            mapping.putInt(position + 4, pixelStrides[p]);
+            mapping.putInt(position + 8, length);
+            mapping.position(position + PLANE_HEADER_SIZE);
+            mapping.put(plane);
+            position += PLANE_HEADER_SIZE + length;
+        }
+        addFrameOffset(offset);
+        end = offset + recordSize;
+        mapping.putInt(COUNT_OFFSET, frameCount);
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public long getTimestamp(int index) {
+        if (index < 0 || index >= frameCount) {
+            throw new IndexOutOfBoundsException("frame " + index + ", count " + frameCount);
+        }
+        return mapping.getLong(frameOffsets[index] + 4);
+    }
+
+    /**
+     * Reads frame {@code index} into {@code out} and returns it. The plane buffers are views of the
+     * mapped file, nothing is copied; they stay valid until the recording is closed.
+     */
+    public Frame read(int index, Frame out) {
+        if (index < 0 || index >= frameCount) {
+            throw new IndexOutOfBoundsException("frame " + index + ", count " + frameCount);
+        }
+        int offset = frameOffsets[index];
+        out.timestamp = mapping.getLong(offset + 4);
+        out.rotationDegrees = mapping.getInt(offset + 12);
+        out.width = mapping.getInt(offset + 16);
+        out.height = mapping.getInt(offset + 20);
+        int position = offset + FRAME_HEADER_SIZE;
+        for (int p = 0; p < PLANES; p++) {
+            out.rowStrides[p] = mapping.getInt(position);
+            out.pixelStrides[p] = mapping.getInt(position + 4);
+            int length = mapping.getInt(position + 8);
+            ByteBuffer plane = mapping.duplicate();
+            plane.limit(position + PLANE_HEADER_SIZE + length).position(position + PLANE_HEADER_SIZE);
+            out.planes[p] = plane.slice();
+            position += PLANE_HEADER_SIZE + length;
+        }
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mapping != null && writable) {
+            mapping.force();
+        }
+        mapping = null;
+        if (raf != null) {
+            if (writable) {
+                // Drops the unused tail of the last mapping.
+                raf.setLength(end);
+            }
+            raf.close();
+            raf = null;
+            channel = null;
+        }
+    }
+
+    private void map(long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("frame recording would exceed 2 GB");
+        }
+        if (mapping != null) {
+            mapping.force();
+        }
+        mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    private void addFrameOffset(int offset) {
+        if (frameCount == frameOffsets.length) {
+            frameOffsets = Arrays.copyOf(frameOffsets, frameCount * 2);
+        }
+        frameOffsets[frameCount++] = offset;
+    }
+
+    /**
+     * One frame read back from a recording.
+     */
+    public static final class Frame {
+        public final ByteBuffer[] planes = new ByteBuffer[PLANES];
+        public final int[] rowStrides = new int[PLANES];
+        public final int[] pixelStrides = new int[PLANES];
+        public long timestamp;
+        public int rotationDegrees;
+        public int width;
+        public int height;
+    }
+}
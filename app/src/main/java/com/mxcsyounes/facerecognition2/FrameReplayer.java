@@ -0,0 +1,74 @@
+package com.mxcsyounes.facerecognition2;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a {@link FrameRecording} into an {@link AnalysisScheduler}, through the same copy and
+ * scheduling path camera frames take.
+ * <p>
+ * At {@link Pace#RECORDED} frames arrive with their original spacing, so frames are dropped exactly
+ * as they would be live. At {@link Pace#AS_FAST_AS_POSSIBLE} each frame waits for the previous one to
+ * be analysed: nothing is dropped, every frame is processed and the run measures pure throughput.
+ */
+public final class FrameReplayer implements Runnable {
+
+    public enum Pace {
+        RECORDED,
+        AS_FAST_AS_POSSIBLE
+    }
+
+    private final FrameRecording recording;
+    private final AnalysisScheduler scheduler;
+    private final Pace pace;
+    private final Listener listener;
+
+    public FrameReplayer(FrameRecording recording, AnalysisScheduler scheduler, Pace pace, Listener listener) {
+        this.recording = recording;
+        this.scheduler = scheduler;
+        this.pace = pace;
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+        FrameRecording.Frame frame = new FrameRecording.Frame();
+        int count = recording.getFrameCount();
+        long startNanos = System.nanoTime();
+        long firstTimestamp = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                recording.read(i, frame);
+                if (i == 0) {
+                    firstTimestamp = frame.timestamp;
+                }
+                if (pace == Pace.RECORDED) {
+                    long due = startNanos + (frame.timestamp - firstTimestamp);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                scheduler.accept(frame.planes[0], frame.rowStrides[0], frame.width, frame.height,
+                        frame.timestamp, frame.rotationDegrees);
+                if (pace == Pace.AS_FAST_AS_POSSIBLE) {
+                    scheduler.awaitIdle();
+                }
+            }
+            scheduler.awaitIdle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        listener.onReplayFinished(count, System.nanoTime() - startNanos);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the replay thread once every frame was handed over and analysed.
+         */
+        void onReplayFinished(int frames, long elapsedNanos);
+    }
+}
@@ -13,24 +13,32 @@ import android.view.View;
 import androidx.camera.core.CameraSelector;
 import androidx.core.util.Preconditions;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import static java.lang.Math.ceil;
-
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Overlay drawn above the camera preview. Producers publish a complete, immutable set of graphics
+ * with {@link #publish}; onDraw reads the latest published set without taking a lock, and redraws
+ * requested between two vsyncs are coalesced into one.
+ */
 public class GraphicOverlay extends View {
 
-    private final Object lock = new Object();
-    private final List<Graphic> graphics = new ArrayList<>();
+    private static final Graphic[] NO_GRAPHICS = new Graphic[0];
+
+    private final AtomicReference<Graphic[]> graphics = new AtomicReference<>(NO_GRAPHICS);
+    private final AtomicBoolean redrawPending = new AtomicBoolean();
     private final Matrix transformationMatrix = new Matrix();
     private int cameraSelector = CameraSelector.LENS_FACING_BACK;
-    private int imageWidth;
-    private int imageHeight;
+    private volatile int imageWidth;
+    private volatile int imageHeight;
     private float scaleFactor = 1.0f;
     private float postScaleWidthOffset;
     private float postScaleHeightOffset;
-    private boolean isImageFlipped;
-    private boolean needUpdateTransformation = true;
+    private volatile boolean isImageFlipped;
+    private volatile boolean needUpdateTransformation = true;
+    private volatile Graphic hud;
+    private volatile PipelineMetrics metrics;
 
 
     public GraphicOverlay(Context context, AttributeSet attrs) {
@@ -40,37 +48,79 @@ public class GraphicOverlay extends View {
                         needUpdateTransformation = true);
     }
 
+    /**
+     * Replaces everything on the overlay with the given graphics in one step. The array is owned
+     * by the overlay afterwards and must not be modified.
+     */
+    public void publish(Graphic... frame) {
+        graphics.set(frame.length == 0 ? NO_GRAPHICS : frame);
+        requestRedraw();
+    }
+
     public void clear() {
-        synchronized (lock) {
-            graphics.clear();
-        }
-        postInvalidate();
+        publish(NO_GRAPHICS);
     }
 
     public void add(Graphic graphic) {
-        synchronized (lock) {
-            graphics.add(graphic);
-        }
+        Graphic[] current;
+        Graphic[] updated;
+        do {
+            current = graphics.get();
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = graphic;
+        } while (!graphics.compareAndSet(current, updated));
+        requestRedraw();
     }
 
     public void remove(Graphic graphic) {
-        synchronized (lock) {
-            graphics.remove(graphic);
+        Graphic[] current;
+        Graphic[] updated;
+        do {
+            current = graphics.get();
+            int index = Arrays.asList(current).indexOf(graphic);
+            if (index < 0) return;
+            updated = new Graphic[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        } while (!graphics.compareAndSet(current, updated));
+        requestRedraw();
+    }
+
+    /**
+     * Schedules a redraw on the next vsync. Safe to call from any thread; calls made before that
+     * redraw happens are folded into it.
+     */
+    public void requestRedraw() {
+        if (redrawPending.compareAndSet(false, true)) {
+            postInvalidateOnAnimation();
         }
-        postInvalidate();
+    }
+
+    /**
+     * Sets a graphic drawn on top of everything else that survives {@link #clear()}, or null to hide it.
+     */
+    public void setHud(Graphic hud) {
+        this.hud = hud;
+        requestRedraw();
+    }
+
+    public boolean isHudVisible() {
+        return hud != null;
+    }
+
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
     }
 
     @SuppressLint("RestrictedApi")
     public void setImageSourceInfo(int imageWidth, int imageHeight, boolean isFlipped) {
         Preconditions.checkState(imageWidth > 0, "image width must be positive");
         Preconditions.checkState(imageHeight > 0, "image height must be positive");
-        synchronized (lock) {
-            this.imageWidth = imageWidth;
-            this.imageHeight = imageHeight;
-            this.isImageFlipped = isFlipped;
-            needUpdateTransformation = true;
-        }
-        postInvalidate();
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.isImageFlipped = isFlipped;
+        needUpdateTransformation = true;
+        requestRedraw();
     }
 
     public int getImageWidth() {
@@ -113,11 +163,19 @@ public class GraphicOverlay extends View {
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        synchronized (lock) {
-            updateTransformationIfNeeded();
-            for (Graphic graphic : graphics) {
-                graphic.draw(canvas);
-            }
+        redrawPending.set(false);
+        long start = System.nanoTime();
+        updateTransformationIfNeeded();
+        for (Graphic graphic : graphics.get()) {
+            graphic.draw(canvas);
+        }
+        PipelineMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.record(PipelineMetrics.Stage.OVERLAY_DRAW, System.nanoTime() - start);
+        }
+        Graphic hud = this.hud;
+        if (hud != null) {
+            hud.draw(canvas);
         }
     }
 
@@ -133,6 +191,8 @@ public class GraphicOverlay extends View {
 
     public abstract static class Graphic {
         private final GraphicOverlay overlay;
+        private final OverlayGeometry geometry = new OverlayGeometry();
+        private final float[] mappedCorners = new float[4];
 
         public Graphic(GraphicOverlay overlay) {
             this.overlay = overlay;
@@ -171,8 +231,25 @@ public class GraphicOverlay extends View {
             return overlay.transformationMatrix;
         }
 
+        /**
+         * The transformation matrix for an upright image of the given size, which may differ from the
+         * one passed to {@link GraphicOverlay#setImageSourceInfo}, as for a still capture. {@code matrix}
+         * is filled only when the sizes differ.
+         */
+        public Matrix getTransformationMatrix(int imageWidth, int imageHeight, Matrix matrix) {
+            int overlayWidth = overlay.imageWidth;
+            int overlayHeight = overlay.imageHeight;
+            if (imageWidth <= 0 || imageHeight <= 0 || overlayWidth <= 0 || overlayHeight <= 0
+                    || (imageWidth == overlayWidth && imageHeight == overlayHeight)) {
+                return overlay.transformationMatrix;
+            }
+            matrix.set(overlay.transformationMatrix);
+            matrix.preScale((float) overlayWidth / imageWidth, (float) overlayHeight / imageHeight);
+            return matrix;
+        }
+
         public void postInvalidate() {
-            overlay.postInvalidate();
+            overlay.requestRedraw();
         }
 
         public boolean isLandScapeMode() {
@@ -193,29 +270,20 @@ public class GraphicOverlay extends View {
 
         @SuppressWarnings("SuspiciousNameCombination")
         public RectF calculateRect(float height, float width, Rect boundingBoxT) {
-            float scaleX = overlay.getWidth() / whenLandScapeModeWidth(height, width);
-            float scaleY = overlay.getHeight() / whenLandScapeModeHeight(height, width);
-            float scale = Math.max(scaleX, scaleY);
-            overlay.scaleFactor = scale;
-
-            // Calculate offset (we need to center the overlay on the target)
-            float offsetX = (float) ((overlay.getWidth() - ceil(whenLandScapeModeWidth(height, width) * scale)) / 2.0f);
-            float offsetY = (float) ((overlay.getHeight() - ceil(whenLandScapeModeHeight(height, width) * scale)) / 2.0f);
-
-            overlay.postScaleHeightOffset = offsetX;
-            overlay.postScaleWidthOffset = offsetY;
-            RectF mappedBox = new RectF();
-
-            mappedBox.left = boundingBoxT.right * scale + offsetX;
-            mappedBox.top = boundingBoxT.top * scale + offsetY;
-            mappedBox.right = boundingBoxT.left * scale + offsetX;
-            mappedBox.bottom = boundingBoxT.bottom * scale + offsetY;
-
-            if (overlay.isFrontMode()) {
-                float centerX = overlay.getWidth() / 2f;
-                mappedBox.left = centerX + (centerX - mappedBox.left);
-                mappedBox.right = centerX - (mappedBox.right - centerX);
-            }
+            return calculateRect(height, width, boundingBoxT, new RectF());
+        }
+
+        /**
+         * Maps {@code boundingBoxT} into {@code mappedBox} and returns it. Only the graphic's own
+         * geometry is updated, the overlay's transformation is left untouched.
+         */
+        @SuppressWarnings("SuspiciousNameCombination")
+        public RectF calculateRect(float height, float width, Rect boundingBoxT, RectF mappedBox) {
+            geometry.update(overlay.getWidth(), overlay.getHeight(),
+                    whenLandScapeModeWidth(height, width), whenLandScapeModeHeight(height, width));
+            geometry.map(boundingBoxT.left, boundingBoxT.top, boundingBoxT.right, boundingBoxT.bottom,
+                    overlay.isFrontMode(), overlay.getWidth(), mappedCorners);
+            mappedBox.set(mappedCorners[0], mappedCorners[1], mappedCorners[2], mappedCorners[3]);
             return mappedBox;
         }
     }
@@ -0,0 +1,112 @@
+package com.mxcsyounes.facerecognition2;
+
+import java.util.Arrays;
+
+/**
+ * Local binary pattern histograms over a grid of cells, the descriptor behind OpenCV's LBPH face
+ * recognizer, computed in plain Java on a packed grayscale crop. Only the 58 uniform patterns get their
+ * own bin, everything else shares one. Each cell histogram is square-root normalized, so the squared
+ * Euclidean distance between two descriptors behaves like the Hellinger distance and can be computed
+ * with a plain multiply-add loop.
+ * <p>
+ * Grouping the uniform bins of a cell by their number of set bits, rotations of the same pattern
+ * together, gives the rotation invariant histogram (riu2) with {@link #INVARIANT_BINS} bins per cell,
+ * which {@link #invariantGroups()} describes for pooling.
+ */
+public final class LbpDescriptor {
+
+    public static final int BINS = 59;
+    public static final int INVARIANT_BINS = 10;
+
+    private static final byte[] UNIFORM_BIN = new byte[256];
+    private static final byte[] INVARIANT_BIN = new byte[BINS];
+
+    static {
+        int bin = 0;
+        for (int pattern = 0; pattern < 256; pattern++) {
+            int transitions = Integer.bitCount((pattern ^ ((pattern >> 1) | ((pattern & 1) << 7))) & 0xFF);
+            if (transitions <= 2) {
+                INVARIANT_BIN[bin] = (byte) Integer.bitCount(pattern);
+                UNIFORM_BIN[pattern] = (byte) bin++;
+            } else {
+                UNIFORM_BIN[pattern] = BINS - 1;
+            }
+        }
+        INVARIANT_BIN[BINS - 1] = INVARIANT_BINS - 1;
+    }
+
+    private final int gridX;
+    private final int gridY;
+    private final int[] counts;
+
+    public LbpDescriptor(int gridX, int gridY) {
+        this.gridX = gridX;
+        this.gridY = gridY;
+        counts = new int[gridX * gridY * BINS];
+    }
+
+    public int getLength() {
+        return gridX * gridY * BINS;
+    }
+
+    public int getCellCount() {
+        return gridX * gridY;
+    }
+
+    /**
+     * For every descriptor dimension, the rotation invariant bin it falls in, numbered across cells,
+     * as {@link FaceGallery} pools it.
+     */
+    public int[] invariantGroups() {
+        int[] groups = new int[getLength()];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = i / BINS * INVARIANT_BINS + INVARIANT_BIN[i % BINS];
+        }
+        return groups;
+    }
+
+    /**
+     * Computes the descriptor of a {@code width * height} crop into {@code out} starting at
+     * {@code outOffset}. The one-pixel border has no full neighbourhood and is skipped.
+     * Not thread safe, each thread needs its own instance.
+     */
+    public void compute(byte[] pixels, int width, int height, float[] out, int outOffset) {
+        if (width < 3 || height < 3) {
+            throw new IllegalArgumentException("crop too small: " + width + "x" + height);
+        }
+        int[] counts = this.counts;
+        Arrays.fill(counts, 0);
+        int innerWidth = width - 2;
+        int innerHeight = height - 2;
+        for (int y = 1; y < height - 1; y++) {
+            int cellRow = (y - 1) * gridY / innerHeight * gridX;
+            int row = y * width;
+            for (int x = 1; x < width - 1; x++) {
+                int i = row + x;
+                int center = pixels[i] & 0xFF;
+                int pattern = 0;
+                if ((pixels[i - width - 1] & 0xFF) >= center) pattern |= 0x80;
+                if ((pixels[i - width] & 0xFF) >= center) pattern |= 0x40;
+                if ((pixels[i - width + 1] & 0xFF) >= center) pattern |= 0x20;
+                if ((pixels[i + 1] & 0xFF) >= center) pattern |= 0x10;
+                if ((pixels[i + width + 1] & 0xFF) >= center) pattern |= 0x08;
+                if ((pixels[i + width] & 0xFF) >= center) pattern |= 0x04;
+                if ((pixels[i + width - 1] & 0xFF) >= center) pattern |= 0x02;
+                if ((pixels[i - 1] & 0xFF) >= center) pattern |= 0x01;
+                int cell = cellRow + (x - 1) * gridX / innerWidth;
+                counts[cell * BINS + UNIFORM_BIN[pattern]]++;
+            }
+        }
+        for (int cell = 0; cell < gridX * gridY; cell++) {
+            int total = 0;
+            int base = cell * BINS;
+            for (int bin = 0; bin < BINS; bin++) {
+                total += counts[base + bin];
+            }
+            float scale = total > 0 ? 1f / total : 0f;
+            for (int bin = 0; bin < BINS; bin++) {
+                out[outOffset + base + bin] = (float) Math.sqrt(counts[base + bin] * scale);
+            }
+        }
+    }
+}
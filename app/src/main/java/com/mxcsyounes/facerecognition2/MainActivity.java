@@ -1,15 +1,15 @@
 package com.mxcsyounes.facerecognition2;
 
 import android.annotation.SuppressLint;
-import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
 import android.graphics.Matrix;
-import android.graphics.YuvImage;
-import android.media.Image;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import android.widget.ImageView;
@@ -17,6 +17,7 @@ import android.widget.LinearLayout;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.camera.core.Camera;
 import androidx.camera.core.CameraInfo;
@@ -25,6 +26,7 @@ import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.ImageCapture;
 import androidx.camera.core.ImageProxy;
 import androidx.camera.core.Preview;
+import androidx.camera.core.UseCase;
 import androidx.camera.core.impl.CameraInfoInternal;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
@@ -36,32 +38,68 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import org.opencv.android.OpenCVLoader;
 import org.opencv.android.Utils;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfRect;
-import org.opencv.core.Point;
-import org.opencv.core.Rect;
-import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
 
-
+    /**
+     * Records every analysis frame to this file under the app's external files directory.
+     */
+    static final String EXTRA_RECORD = "record";
+    /**
+     * Replays this recording instead of analysing camera frames, writing detections next to it.
+     */
+    static final String EXTRA_REPLAY = "replay";
+    static final String EXTRA_REPLAY_FAST = "replay_fast";
+    /**
+     * Detection backend: {@link #BACKEND_HAAR} (default), {@link #BACKEND_LBP} or {@link #BACKEND_DNN}.
+     * The LBP and DNN models are read from the models directory under the app's external files.
+     */
+    static final String EXTRA_DETECTOR = "detector";
+    static final String BACKEND_HAAR = "haar";
+    static final String BACKEND_LBP = "lbp";
+    static final String BACKEND_DNN = "dnn";
+
+    private static final double MIN_TRACKING_CONFIDENCE = 0.6;
+    private static final int FULL_SWEEP_INTERVAL = 10;
+    private static final float ROI_MARGIN = 0.5f;
+    private static final long MAX_PREDICTION_NANOS = 250_000_000L;
+    private static final long MAX_TRACK_AGE_NANOS = 500_000_000L;
+    private static final int CAPTURE_TARGET_SIZE = 480;
+    private static final int FACE_CROP_SIZE = 64;
+    private static final float MAX_RECOGNITION_DISTANCE = 4f;
+    private static final float TARGET_FPS = 15f;
+    private static final long LATENCY_BUDGET_NANOS = 150_000_000L;
+    private static final float DNN_CONFIDENCE = 0.5f;
+    private static final int ANALYSIS_WIDTH = 480;
+    private static final int ANALYSIS_HEIGHT = 640;
+    private static final long CAPTURE_ARENA_IDLE_BYTES = 8L * 1024 * 1024;
+    private static final int MOTION_THUMBNAIL_WIDTH = 32;
+    private static final double MOTION_PIXEL_THRESHOLD = 12;
+    private static final float MOTION_CHANGED_FRACTION = 0.01f;
+    private static final long MOTION_MAX_AGE_NANOS = 1_000_000_000L;
+    private static final long RECOGNITION_CACHE_BYTES = 256 * 1024;
+    private static final long RECOGNITION_CACHE_TTL_NANOS = 2_000_000_000L;
+    private static final long RECOGNITION_MIN_REFRESH_NANOS = 500_000_000L;
+    private static final long RECOGNITION_MAX_REFRESH_NANOS = 5_000_000_000L;
+    private static final float RECOGNITION_MAX_SCALE_CHANGE = 1.5f;
     private final String[] REQUIRED_PERMISSIONS = new String[]{"android.permission.CAMERA"};
     private final int REQUEST_CODE_PERMISSIONS = 101;
-    CascadeClassifier faceDetector;
+    volatile FaceDetector faceDetector;
     PreviewView textureView;
     //PreviewView previewView;
     ImageView ivBitmap;
@@ -73,61 +111,117 @@ public class MainActivity extends AppCompatActivity {
     FloatingActionButton btnCapture, btnOk, btnCancel;
     private ImageCapture imageCapture;
     private ListenableFuture<ProcessCameraProvider> cameraProviderFuture;
-    private Executor cameraExecutor;
-    private boolean needUpdateGraphicOverlayImageSourceInfo;
-
-    public static Bitmap convertJPEGtoBitmap(Image image) {
-        Image.Plane[] planes = image.getPlanes();
-        ByteBuffer planeBuffer = planes[0].getBuffer();
-        byte[] bytes = new byte[planeBuffer.remaining()];
-        planeBuffer.get(bytes);
-        Bitmap original = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-        return Bitmap.createScaledBitmap(original, 1000, 1000, true);
-    }
-
-    public static Bitmap toBitmap(Image image) {
-        Image.Plane[] planes = image.getPlanes();
-        ByteBuffer yBuffer = planes[0].getBuffer();
-        ByteBuffer uBuffer = planes[1].getBuffer();
-        ByteBuffer vBuffer = planes[2].getBuffer();
-
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining();
-        int vSize = vBuffer.remaining();
-
-        byte[] nv21 = new byte[ySize + uSize + vSize];
-        //U and V are swapped
-        yBuffer.get(nv21, 0, ySize);
-        vBuffer.get(nv21, ySize, vSize);
-        uBuffer.get(nv21, ySize + vSize, uSize);
-
-        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, image.getWidth(), image.getHeight(), null);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuvImage.compressToJpeg(new android.graphics.Rect(0, 0, yuvImage.getWidth(), yuvImage.getHeight()), 75, out);
-
-        byte[] imageBytes = out.toByteArray();
-        return BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-    }
+    // Main thread only.
+    private ProcessCameraProvider cameraProvider;
+    private CameraSelector cameraSelector;
+    private CameraInfo selectedCamera;
+    private boolean detectorReady;
+    private boolean analysisBound;
+    private ExecutorService captureExecutor;
+    // Builds the recognition index, which can take seconds for a large gallery.
+    private ExecutorService indexExecutor;
+    private AnalysisScheduler analysisScheduler;
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final FrameBufferPool<AnalysisFrame> framePool = new FrameBufferPool<>(AnalysisFrame.factory(metrics), 8);
+    private FaceTracker faceTracker;
+    boolean trackingEnabled = true;
+    boolean parallelDetectionEnabled = Runtime.getRuntime().availableProcessors() >= 4;
+    private volatile ParallelFaceDetector parallelDetector;
+    volatile boolean adaptiveQualityEnabled = true;
+    private final AdaptiveQualityController quality =
+            new AdaptiveQualityController(TARGET_FPS, LATENCY_BUDGET_NANOS, parallelDetectionEnabled ? 1 : 2);
+    boolean uprightAnalysisEnabled = true;
+    boolean equalizationEnabled = false;
+    boolean adaptiveEqualization = false;
+    boolean motionGateEnabled = true;
+    // Analysis thread only.
+    private MotionGate motionGate;
+    private FaceDetectionResult lastAnalysisResult;
+    // Covers the last analysed result, the stream's latest, one waiting for vsync, one drawn and one filled.
+    private final FaceDetectionResult.Pool resultPool = new FaceDetectionResult.Pool(6);
+    private PreprocessPipeline preprocess;
+    private PreprocessPipeline.Rotate uprightRotation;
+    private PreprocessPipeline detectionPreprocess;
+    private PreprocessPipeline.Downscale detectionScale;
+    private Object thermalListener;
+    boolean roiDetectionEnabled = false;
+    private RoiFaceDetector roiDetector;
+    private final FaceDetectionStream detectionStream = new FaceDetectionStream();
+    private VsyncResultDelivery overlayDelivery;
+    // Main thread only, results reach the overlay through overlayDelivery.
+    private FaceBoxesGraphic faceGraphic;
+    private GraphicOverlay.Graphic[] publishedFaces;
+    boolean smoothingEnabled = true;
+    private final FaceTrackSmoother faceSmoother = new FaceTrackSmoother(MAX_PREDICTION_NANOS, MAX_TRACK_AGE_NANOS);
+    private PredictiveFaceBoxesGraphic predictiveFaces;
+    private GraphicOverlay.Graphic[] publishedPrediction;
+    boolean yuvCaptureEnabled = false;
+    private volatile String detectorBackend;
+    private final CaptureDecoder captureDecoder = new CaptureDecoder(CAPTURE_TARGET_SIZE);
+    private FaceDetector captureDetector;
+    // Decoded stills, snapshot copies and sample crops, returned after every capture.
+    private final MatArena captureArena = new MatArena(metrics, CAPTURE_ARENA_IDLE_BYTES);
+    private PreprocessPipeline capturePreprocess;
+    private PreprocessPipeline.Rotate captureRotation;
+    private final FaceBoxes captureFaces = new FaceBoxes();
+    private final FaceBoxes snapshotFaces = new FaceBoxes();
+    // Owned by the capture thread.
+    private FaceSampleStore sampleStore;
+    int learningLabel = 0;
+    boolean recognitionEnabled = true;
+    private volatile FaceRecognizer faceRecognizer;
+    boolean recognitionCacheEnabled = true;
+    // Analysis thread only, belongs to cachedRecognizer.
+    private RecognitionCache recognitionCache;
+    private FaceRecognizer cachedRecognizer;
+    private FrameRecording frameRecording;
+    private Thread replayThread;
+    private volatile DetectionLogWriter detectionLog;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-        cameraExecutor = Executors.newFixedThreadPool(8);
+        captureExecutor = Executors.newSingleThreadExecutor();
+        indexExecutor = Executors.newSingleThreadExecutor();
+        analysisScheduler = new AnalysisScheduler(framePool, this::analyzeFrame, metrics);
         btnCapture = findViewById(R.id.btnCapture);
         graphicOverlay = findViewById(R.id.graphicOverlay);
+        graphicOverlay.setMetrics(metrics);
+        graphicOverlay.setOnLongClickListener(v -> {
+            toggleMetricsHud();
+            return true;
+        });
+        faceGraphic = new FaceBoxesGraphic(graphicOverlay);
+        publishedFaces = new GraphicOverlay.Graphic[]{faceGraphic};
+        predictiveFaces = new PredictiveFaceBoxesGraphic(graphicOverlay, faceSmoother);
+        publishedPrediction = new GraphicOverlay.Graphic[]{predictiveFaces};
+        overlayDelivery = new VsyncResultDelivery(this::renderResult);
+        detectionStream.subscribe(this::smoothResult);
+        detectionStream.subscribe(this::logResult);
+        detectionStream.subscribe(overlayDelivery);
         btnOk = findViewById(R.id.btnAccept);
         btnCancel = findViewById(R.id.btnReject);
 
         llBottom = findViewById(R.id.llBottom);
         textureView = findViewById(R.id.textureView);
 
-        if (!OpenCVLoader.initDebug()) {
-            Log.d("ERROR", "Unable to load OpenCV");
-        } else {
-            Log.d("SUCCESS", "OpenCV loaded");
-            createClassifier();
-        }
+        StartupTimeline startup = metrics.getStartup();
+        long createdAt = SystemClock.elapsedRealtime();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+            startup.mark(StartupTimeline.Milestone.PROCESS_START, Process.getStartElapsedRealtime());
+        startup.mark(StartupTimeline.Milestone.ACTIVITY_CREATED, createdAt);
+        textureView.getPreviewStreamState().observe(this, state -> {
+            if (state == PreviewView.StreamState.STREAMING)
+                startup.mark(StartupTimeline.Milestone.FIRST_PREVIEW_FRAME, SystemClock.elapsedRealtime());
+        });
+
+        // The model loads in the background while the camera starts; analysis is bound once it is ready.
+        ExecutorService modelExecutor = Executors.newSingleThreadExecutor();
+        modelExecutor.execute(() -> loadDetector(createdAt));
+        modelExecutor.shutdown();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) registerThermalListener();
 
         if (allPermissionsGranted()) {
             Log.d("TAG", "allPermissionsGranted: ");
@@ -142,7 +236,7 @@ public class MainActivity extends AppCompatActivity {
         cameraProviderFuture = ProcessCameraProvider.getInstance(this);
         cameraProviderFuture.addListener(() -> {
             try {
-                ProcessCameraProvider cameraProvider = cameraProviderFuture.get();
+                cameraProvider = cameraProviderFuture.get();
                 bindCameraPreview(cameraProvider);
             } catch (ExecutionException | InterruptedException e) {
                 e.printStackTrace();
@@ -150,32 +244,23 @@ public class MainActivity extends AppCompatActivity {
         }, ContextCompat.getMainExecutor(this));
     }
 
+    /**
+     * First startup stage: only the preview is bound, so it shows without waiting for the analysis and
+     * capture streams to be configured. {@link #bindAnalysis()} adds them once the detector is ready.
+     */
     void bindCameraPreview(@NonNull ProcessCameraProvider cameraProvider) {
         cameraProvider.unbindAll();
+        analysisBound = false;
         Preview preview = new Preview.Builder()
                 .build();
 
-        @SuppressLint("RestrictedApi") CameraSelector cameraSelector = new CameraSelector.Builder()
-
-                .addCameraFilter(cameraInfos -> {
-                    List<CameraInfo> resultCameras = new ArrayList<>();
-                    for (CameraInfo cameraInfo : cameraInfos) {
-                        CameraInfoInternal cameraInfoInternal = (CameraInfoInternal) cameraInfo;
-                        if (cameraInfoInternal.getCameraId().equals("1"))
-                            resultCameras.add(cameraInfo);
-
-                    }
-
-                    return resultCameras;
-                })
-                .requireLensFacing(CameraSelector.LENS_FACING_BACK)
-                .build();
-
         imageCapture = new ImageCapture.Builder()
                 .setTargetRotation(textureView.getDisplay().getRotation())
                 .build();
 
         imageAnalysis = new ImageAnalysis.Builder()
+                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                .setTargetResolution(new android.util.Size(ANALYSIS_WIDTH, ANALYSIS_HEIGHT))
                 .setTargetRotation(textureView.getDisplay().getRotation())
                 .build();
 
@@ -184,57 +269,280 @@ public class MainActivity extends AppCompatActivity {
 */
         setImageAnalysis();
         preview.setSurfaceProvider(textureView.getSurfaceProvider());
-        camera = cameraProvider.bindToLifecycle(this, cameraSelector, preview, imageCapture, imageAnalysis);
+        camera = cameraProvider.bindToLifecycle(this, getCameraSelector(), preview);
+        metrics.getStartup().mark(StartupTimeline.Milestone.PREVIEW_BOUND, SystemClock.elapsedRealtime());
+        bindAnalysis();
     }
 
-    private ImageAnalysis setImageAnalysis() {
+    /**
+     * Second startup stage, once both the camera and the detector are ready. ImageCapture is bound
+     * together with analysis, so the session is reconfigured once and the first capture does not wait;
+     * it is left out when captures come from analysis frames, and bound on demand if that changes.
+     */
+    private void bindAnalysis() {
+        if (cameraProvider == null || !detectorReady || analysisBound) return;
+        analysisBound = true;
+        List<UseCase> useCases = new ArrayList<>(2);
+        // A replay feeds the analyzer itself, camera frames would only be dropped.
+        if (!getIntent().hasExtra(EXTRA_REPLAY)) useCases.add(imageAnalysis);
+        if (!yuvCaptureEnabled) useCases.add(imageCapture);
+        if (useCases.isEmpty()) return;
+        camera = cameraProvider.bindToLifecycle(this, getCameraSelector(), useCases.toArray(new UseCase[0]));
+        metrics.getStartup().mark(StartupTimeline.Milestone.ANALYSIS_BOUND, SystemClock.elapsedRealtime());
+    }
 
-        needUpdateGraphicOverlayImageSourceInfo = true;
+    private void onDetectorReady() {
+        detectorReady = true;
+        bindAnalysis();
+    }
 
-        imageAnalysis.setAnalyzer(cameraExecutor, image -> {
-            @SuppressLint("UnsafeOptInUsageError") Bitmap bitmap = toBitmap(image.getImage());
-            if (needUpdateGraphicOverlayImageSourceInfo) {
-                boolean isImageFlipped = true;
-                int rotationDegrees = image.getImageInfo().getRotationDegrees();
-                if (rotationDegrees == 0 || rotationDegrees == 180)
-                    graphicOverlay.setImageSourceInfo(
-                            image.getWidth(), image.getHeight(), isImageFlipped);
-                else
-                    graphicOverlay.setImageSourceInfo(
-                            image.getHeight(), image.getWidth(), isImageFlipped);
-
-                needUpdateGraphicOverlayImageSourceInfo = false;
+    /**
+     * Built once; its filter resolves the camera on the first bind and keeps returning that camera,
+     * so the staged binds do not scan the camera list again.
+     */
+    private CameraSelector getCameraSelector() {
+        if (cameraSelector == null) {
+            cameraSelector = new CameraSelector.Builder()
+                    .addCameraFilter(this::filterCameras)
+                    .requireLensFacing(CameraSelector.LENS_FACING_BACK)
+                    .build();
+        }
+        return cameraSelector;
+    }
+
+    @SuppressLint("RestrictedApi")
+    private List<CameraInfo> filterCameras(List<CameraInfo> cameraInfos) {
+        if (selectedCamera == null || !cameraInfos.contains(selectedCamera)) {
+            selectedCamera = null;
+            for (CameraInfo cameraInfo : cameraInfos) {
+                CameraInfoInternal cameraInfoInternal = (CameraInfoInternal) cameraInfo;
+                if (cameraInfoInternal.getCameraId().equals("1")) {
+                    selectedCamera = cameraInfo;
+                    break;
+                }
             }
-            Mat mat = new Mat();
-            Utils.bitmapToMat(bitmap, mat);
-            image.close();
+        }
+        return selectedCamera != null ? Collections.singletonList(selectedCamera) : Collections.<CameraInfo>emptyList();
+    }
 
-            MatOfRect faceDetections = new MatOfRect();
-            faceDetector.detectMultiScale(mat, faceDetections);
+    private ImageAnalysis setImageAnalysis() {
 
-            Rect[] faces = faceDetections.toArray();
-            for (Rect rect : faces) {
-                System.out.println(rect);
-            }
+        // A replay owns the analyzer, camera frames would be interleaved with the recorded ones.
+        if (!getIntent().hasExtra(EXTRA_REPLAY))
+            imageAnalysis.setAnalyzer(analysisScheduler.getIntakeExecutor(), analysisScheduler);
+        return imageAnalysis;
 
-            if (faces.length != 0) {
-                //android.graphics.Rect rect = new android.graphics.Rect(0, 0, 100, 100);
-                android.graphics.Rect rect = new android.graphics.Rect(faces[0].x, faces[0].y, faces[0].x + faces[0].width + 20, faces[0].y + faces[0].height + 20);
-                System.out.println("Rect " + rect.toString());
-                System.out.println("Image " + image.getCropRect().toString());
-                Imgproc.rectangle(mat, new Point(faces[0].x, faces[0].y), new Point(faces[0].x + faces[0].width, faces[0].y + faces[0].height), new Scalar(255, 0, 0));
-                graphicOverlay.clear();
-                BoundingBoxContourGraphic contourGraphic = new BoundingBoxContourGraphic(graphicOverlay, rect, image.getCropRect());
-                graphicOverlay.add(contourGraphic);
-                graphicOverlay.postInvalidate();
+    }
 
+    private void analyzeFrame(AnalysisFrame frame) {
+        long start = System.nanoTime();
+        if (motionGateEnabled) {
+            boolean unchanged = motionGate.isUnchanged(frame.gray, frame.rotationDegrees, frame.timestamp);
+            metrics.record(PipelineMetrics.Stage.MOTION_GATE, System.nanoTime() - start);
+            FaceDetectionResult previous = lastAnalysisResult;
+            metrics.recordMotionGate(unchanged && previous != null);
+            if (unchanged && previous != null) {
+                // Nothing moved since the last analysed frame, so its boxes still hold. Skipped frames
+                // stay out of the quality controller, they say nothing about the cost of detection.
+                FaceDetectionResult reused = resultPool.obtain(frame.timestamp, frame.arrivalNanos,
+                        previous.getFaces(), previous.imageWidth, previous.imageHeight, previous.rotationDegrees, false);
+                detectionStream.publish(reused);
+                reused.release();
+                return;
             }
+        }
+        uprightRotation.setDegrees(uprightAnalysisEnabled ? frame.rotationDegrees : 0);
+        Mat image = preprocess.process(frame.gray);
+        // What is left for the overlay to rotate, 0 once the image was turned upright.
+        int rotationDegrees = frame.rotationDegrees - uprightRotation.getDegrees();
+
+        if (!trackingEnabled || faceTracker.needsDetection()) {
+            long detectionStart = System.nanoTime();
+            detectFaces(image, frame.faces, roiDetectionEnabled);
+            metrics.record(PipelineMetrics.Stage.DETECTION, System.nanoTime() - detectionStart);
+            if (trackingEnabled) faceTracker.onDetections(image, frame.faces);
+        } else {
+            faceTracker.track(image);
+            faceTracker.getFaces(frame.faces);
+        }
 
-        });
+        FaceRecognizer recognizer = faceRecognizer;
+        if (recognitionEnabled && recognizer != null && !frame.faces.isEmpty()) {
+            long recognitionStart = System.nanoTime();
+            int searched = recognizer.recognize(image, frame.faces, rotationDegrees, recognitionCacheFor(recognizer),
+                    recognitionStart);
+            metrics.record(PipelineMetrics.Stage.RECOGNITION, System.nanoTime() - recognitionStart);
+            metrics.recordRecognitions(frame.faces.size(), searched);
+        }
+
+        // Published even without faces, so boxes from earlier frames do not linger.
+        FaceDetectionResult result = resultPool.obtain(frame.timestamp, frame.arrivalNanos, frame.faces,
+                image.cols(), image.rows(), rotationDegrees, false);
+        if (lastAnalysisResult != null) lastAnalysisResult.release();
+        lastAnalysisResult = result;
+        detectionStream.publish(result);
+        markFirstResults(frame.faces);
+
+        long end = System.nanoTime();
+        if (adaptiveQualityEnabled && quality.onFrameProcessed(end - start, end - frame.arrivalNanos, end)) {
+            applyQualityLevel();
+        }
+    }
 
+    /**
+     * Per-track results are only valid for the recognizer that produced them. Null when caching is off;
+     * faces without a track id, with tracking off, are always recognized.
+     */
+    private RecognitionCache recognitionCacheFor(FaceRecognizer recognizer) {
+        if (!recognitionCacheEnabled) return null;
+        if (recognizer != cachedRecognizer) {
+            recognitionCache = new RecognitionCache(recognizer.getDescriptorLength(), RECOGNITION_CACHE_BYTES,
+                    RECOGNITION_CACHE_TTL_NANOS, RECOGNITION_MIN_REFRESH_NANOS, RECOGNITION_MAX_REFRESH_NANOS,
+                    RECOGNITION_MAX_SCALE_CHANGE);
+            cachedRecognizer = recognizer;
+        }
+        return recognitionCache;
+    }
 
-        return imageAnalysis;
+    private void markFirstResults(FaceBoxes faces) {
+        StartupTimeline startup = metrics.getStartup();
+        if (startup.isMarked(StartupTimeline.Milestone.FIRST_DETECTION)) return;
+        long now = SystemClock.elapsedRealtime();
+        startup.mark(StartupTimeline.Milestone.FIRST_ANALYZED_FRAME, now);
+        if (!faces.isEmpty() && startup.mark(StartupTimeline.Milestone.FIRST_DETECTION, now)) {
+            Log.i("TAG", "startup ms: " + startup);
+        }
+    }
+
+    private void smoothResult(FaceDetectionResult result) {
+        if (smoothingEnabled && !result.still) faceSmoother.update(result.getFaces(), result.arrivalNanos);
+    }
+
+    private void logResult(FaceDetectionResult result) {
+        DetectionLogWriter log = detectionLog;
+        if (log == null || result.still) return;
+        try {
+            log.write(result.timestamp, result.getFaces());
+        } catch (IOException e) {
+            Log.e("TAG", "logResult: ", e);
+            detectionLog = null;
+        }
+    }
+
+    /**
+     * Shows the newest result on the main thread, at most once per display frame. A result without
+     * faces clears the boxes of the previous one.
+     */
+    private void renderResult(FaceDetectionResult result) {
+        long start = System.nanoTime();
+        boolean sideways = result.rotationDegrees == 90 || result.rotationDegrees == 270;
+        int sourceWidth = sideways ? result.imageHeight : result.imageWidth;
+        int sourceHeight = sideways ? result.imageWidth : result.imageHeight;
+        if (sourceWidth != graphicOverlay.getImageWidth() || sourceHeight != graphicOverlay.getImageHeight()) {
+            boolean isImageFlipped = true;
+            graphicOverlay.setImageSourceInfo(sourceWidth, sourceHeight, isImageFlipped);
+        }
+        if (smoothingEnabled && !result.still) {
+            predictiveFaces.setFrameInfo(result.imageWidth, result.imageHeight, result.rotationDegrees);
+            graphicOverlay.publish(publishedPrediction);
+        } else {
+            faceGraphic.setBoxes(result.getFaces(), result.imageWidth, result.imageHeight, result.rotationDegrees);
+            graphicOverlay.publish(publishedFaces);
+        }
+        metrics.record(PipelineMetrics.Stage.RESULT_MAPPING, System.nanoTime() - start);
+    }
 
+    private void applyQualityLevel() {
+        AdaptiveQualityController.Level level = quality.getCurrent();
+        faceTracker.setKeyframeInterval(level.detectionInterval);
+        roiDetector.setScaleFactor(level.scaleFactor);
+        // Boxes kept from the previous level may be in a different detection resolution.
+        roiDetector.reset();
+        Log.i("TAG", "quality level " + quality.getLevel() + ": downscale " + level.downscale + ", scale factor "
+                + level.scaleFactor + ", detection every " + level.detectionInterval + " frames, processing "
+                + quality.getSmoothedProcessingNanos() / 1000 + " us");
+    }
+
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private void registerThermalListener() {
+        PowerManager powerManager = getSystemService(PowerManager.class);
+        PowerManager.OnThermalStatusChangedListener listener = status -> quality.setThermalFloor(thermalFloorFor(status));
+        powerManager.addThermalStatusListener(ContextCompat.getMainExecutor(this), listener);
+        thermalListener = listener;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private void unregisterThermalListener() {
+        if (thermalListener == null) return;
+        getSystemService(PowerManager.class)
+                .removeThermalStatusListener((PowerManager.OnThermalStatusChangedListener) thermalListener);
+        thermalListener = null;
+    }
+
+    private static int thermalFloorFor(int thermalStatus) {
+        int lowest = AdaptiveQualityController.getLevelCount() - 1;
+        switch (thermalStatus) {
+            case PowerManager.THERMAL_STATUS_NONE:
+            case PowerManager.THERMAL_STATUS_LIGHT:
+                return 0;
+            case PowerManager.THERMAL_STATUS_MODERATE:
+                return lowest - 2;
+            case PowerManager.THERMAL_STATUS_SEVERE:
+                return lowest - 1;
+            default:
+                return lowest;
+        }
+    }
+
+    private void toggleMetricsHud() {
+        graphicOverlay.setHud(graphicOverlay.isHudVisible() ? null : new MetricsHudGraphic(graphicOverlay, metrics));
+    }
+
+    private void dumpMetrics() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) return;
+        String name = "metrics-" + System.currentTimeMillis();
+        try (Writer json = new FileWriter(new File(dir, name + ".json"));
+             Writer csv = new FileWriter(new File(dir, name + ".csv"))) {
+            metrics.writeJson(json);
+            metrics.writeCsv(csv);
+        } catch (IOException e) {
+            Log.e("TAG", "dumpMetrics: ", e);
+        }
+    }
+
+    /**
+     * Detects faces in {@code image} at the current quality level, around the previous faces when
+     * {@code roi} is set, and writes them to {@code faces} in the coordinates of {@code image}.
+     */
+    private void detectFaces(Mat image, FaceBoxes faces, boolean roi) {
+        detectionScale.setScale(quality.getCurrent().downscale);
+        Mat input = detectionPreprocess.process(image);
+        if (roi) {
+            roiDetector.detect(input, faces);
+        } else {
+            detectFullFrame(input, faces);
+        }
+        if (input.cols() != image.cols() || input.rows() != image.rows()) {
+            float scaleX = (float) image.cols() / input.cols();
+            float scaleY = (float) image.rows() / input.rows();
+            for (int i = 0; i < faces.size(); i++) {
+                // Corners are scaled and clamped, not sizes, so a box at the border stays inside the
+                // image the tracker and recognizer cut it out of.
+                int left = Math.max(0, Math.min(image.cols() - 1, Math.round(faces.x(i) * scaleX)));
+                int top = Math.max(0, Math.min(image.rows() - 1, Math.round(faces.y(i) * scaleY)));
+                int right = Math.min(image.cols(), Math.round((faces.x(i) + faces.width(i)) * scaleX));
+                int bottom = Math.min(image.rows(), Math.round((faces.y(i) + faces.height(i)) * scaleY));
+                faces.set(i, left, top, Math.max(1, right - left), Math.max(1, bottom - top));
+            }
+        }
+    }
+
+    private void detectFullFrame(Mat gray, FaceBoxes out) {
+        AdaptiveQualityController.Level level = quality.getCurrent();
+        FaceDetector detector = parallelDetector != null ? parallelDetector : faceDetector;
+        detector.setParameters(level.scaleFactor, level.minFaceSize(gray.cols(), gray.rows()), 0);
+        detector.detect(gray, out);
     }
 
     private void updateTransform() {
@@ -299,6 +607,61 @@ public class MainActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }*/
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        captureExecutor.execute(this::dumpMetrics);
+        captureExecutor.execute(() -> {
+            if (sampleStore != null) sampleStore.flush();
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (imageAnalysis != null) imageAnalysis.clearAnalyzer();
+        overlayDelivery.cancel();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) unregisterThermalListener();
+        if (replayThread != null) replayThread.interrupt();
+        analysisScheduler.setRecording(null);
+        // Released on the analysis thread after its last frame, never under a detection still running.
+        analysisScheduler.shutdown(this::releaseAnalysis);
+        if (frameRecording != null) {
+            try {
+                frameRecording.close();
+            } catch (IOException e) {
+                Log.e("TAG", "onDestroy: ", e);
+            }
+        }
+    }
+
+    /**
+     * Frees what analysis uses natively, then the capture side, whose recognizer analysis shares and to
+     * which snapshots hand frames over. Last task of the analysis thread.
+     */
+    private void releaseAnalysis() {
+        if (parallelDetector != null) parallelDetector.release();
+        if (faceDetector != null) faceDetector.release();
+        if (preprocess != null) preprocess.release();
+        if (detectionPreprocess != null) detectionPreprocess.release();
+        if (faceTracker != null) faceTracker.release();
+        if (motionGate != null) motionGate.release();
+        captureExecutor.execute(captureDecoder::clear);
+        captureExecutor.execute(() -> {
+            if (captureDetector != null) captureDetector.release();
+            if (capturePreprocess != null) capturePreprocess.release();
+            FaceRecognizer recognizer = faceRecognizer;
+            faceRecognizer = null;
+            if (recognizer != null) recognizer.release();
+        });
+        captureExecutor.execute(this::closeSampleStore);
+        // Queued last, so a scope still open at this point shows up as leaked.
+        captureExecutor.execute(captureArena::release);
+        // From the capture thread, after every task there that may queue an index build.
+        captureExecutor.execute(indexExecutor::shutdown);
+        captureExecutor.shutdown();
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
@@ -324,61 +687,264 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void takePictureForLearning() {
-        imageCapture.takePicture(cameraExecutor, new ImageCapture.OnImageCapturedCallback() {
+        long requestedAt = System.nanoTime();
+        if (yuvCaptureEnabled) {
+            // Detects on the Y plane of the next analysis frame instead of a JPEG round trip, turned
+            // upright and scaled like live analysis so the cascade sees the same image.
+            analysisScheduler.requestSnapshot(frame -> {
+                uprightRotation.setDegrees(uprightAnalysisEnabled ? frame.rotationDegrees : 0);
+                Mat image = preprocess.process(frame.gray);
+                int rotationDegrees = frame.rotationDegrees - uprightRotation.getDegrees();
+                detectFaces(image, snapshotFaces, false);
+                onCaptureDetected(snapshotFaces, image.cols(), image.rows(), rotationDegrees, frame.timestamp,
+                        requestedAt);
+                if (snapshotFaces.isEmpty()) return;
+                // The preprocessed image is reused for the next frame, so the samples are saved from a copy.
+                MatArena.Scope scope = captureArena.openScope();
+                Mat gray = scope.copyOf(image);
+                FaceBoxes faces = new FaceBoxes();
+                faces.copyFrom(snapshotFaces);
+                long timestamp = frame.timestamp;
+                captureExecutor.execute(() -> {
+                    try {
+                        saveSamples(gray, faces, rotationDegrees, timestamp);
+                    } finally {
+                        scope.close();
+                    }
+                });
+            });
+            return;
+        }
+        if (cameraProvider == null) return;
+        if (!cameraProvider.isBound(imageCapture)) {
+            // Not bound at startup while captures came from analysis frames.
+            camera = cameraProvider.bindToLifecycle(this, getCameraSelector(), imageCapture);
+        }
+        imageCapture.takePicture(captureExecutor, new ImageCapture.OnImageCapturedCallback() {
 
-            @SuppressLint("UnsafeOptInUsageError")
             @Override
             public void onCaptureSuccess(@NonNull ImageProxy image) {
-                Bitmap bitmap = convertJPEGtoBitmap(image.getImage());
-                Mat mat = new Mat();
-                Bitmap bmp32 = bitmap.copy(Bitmap.Config.ARGB_8888, true);
-                Utils.bitmapToMat(bmp32, mat);
+                long timestamp = image.getImageInfo().getTimestamp();
+                int rotationDegrees = image.getImageInfo().getRotationDegrees();
+                String backend = detectorBackend;
+                if (backend == null) {
+                    image.close();
+                    return;
+                }
+                long decodeStart = System.nanoTime();
+                Bitmap bitmap = captureDecoder.decode(image.getPlanes()[0].getBuffer());
+                metrics.record(PipelineMetrics.Stage.DECODE, System.nanoTime() - decodeStart);
                 image.close();
-
-                MatOfRect faceDetections = new MatOfRect();
-                faceDetector.detectMultiScale(mat, faceDetections);
-
-                Rect[] faces = faceDetections.toArray();
-                for (Rect rect : faces) {
-                    System.out.println(rect);
-
+                if (bitmap == null) return;
+                if (captureDetector == null) {
+                    // The analysis detector is not thread safe, the capture thread gets its own.
+                    try {
+                        captureDetector = openDetector(backend);
+                    } catch (IOException e) {
+                        Log.e("TAG", "onCaptureSuccess: ", e);
+                        captureDecoder.recycle(bitmap);
+                        return;
+                    }
+                    captureRotation = new PreprocessPipeline.Rotate();
+                    capturePreprocess = new PreprocessPipeline(metrics,
+                            new PreprocessPipeline.ColorConversion(currentImageType), captureRotation);
                 }
-                if (faces.length != 0) {
-                    //android.graphics.Rect rect = new android.graphics.Rect(0, 0, 100, 100);
-                    android.graphics.Rect rect = new android.graphics.Rect(faces[0].x, faces[0].y, faces[0].x + faces[0].width, faces[0].y + faces[0].height);
-                    System.out.println(rect.toString());
-                    System.out.println(image.getCropRect().toString());
-                    graphicOverlay.clear();
-                    BoundingBoxContourGraphic contourGraphic = new BoundingBoxContourGraphic(graphicOverlay, rect, image.getCropRect());
-                    graphicOverlay.add(contourGraphic);
+                try (MatArena.Scope scope = captureArena.openScope()) {
+                    Mat rgba = scope.obtain(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
+                    Utils.bitmapToMat(bitmap, rgba);
+                    Runtime runtime = Runtime.getRuntime();
+                    metrics.recordCaptureBytes(runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize());
+                    captureDecoder.recycle(bitmap);
+
+                    // Turned upright here, so neither the overlay nor the sample store rotates again.
+                    captureRotation.setDegrees(rotationDegrees);
+                    Mat gray = capturePreprocess.process(rgba);
+                    captureDetector.detect(gray, captureFaces);
+                    onCaptureDetected(captureFaces, gray.cols(), gray.rows(), 0, timestamp, requestedAt);
+                    saveSamples(gray, captureFaces, 0, timestamp);
                 }
             }
         });
     }
 
-    private void createClassifier() {
-        Log.d("TAG", "onManagerConnected: called succes");
-        InputStream inputStream = getResources().openRawResource(R.raw.haarcascade_frontalface_alt2);
-        File cascadeDir = getDir("cascade", Context.MODE_PRIVATE);
-        File casFile = new File(cascadeDir, "haarcascade_frontalface_alt2.xml");
+    private void startRecordingOrReplay() {
+        File dir = getExternalFilesDir(null);
+        String replay = getIntent().getStringExtra(EXTRA_REPLAY);
+        String record = getIntent().getStringExtra(EXTRA_RECORD);
         try {
-            FileOutputStream fos = new FileOutputStream(casFile);
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
+            if (replay != null) {
+                FrameRecording recording = FrameRecording.open(new File(dir, replay));
+                detectionLog = new DetectionLogWriter(new BufferedWriter(
+                        new FileWriter(new File(dir, replay + ".detections.jsonl"))), recording);
+                FrameReplayer.Pace pace = getIntent().getBooleanExtra(EXTRA_REPLAY_FAST, false)
+                        ? FrameReplayer.Pace.AS_FAST_AS_POSSIBLE : FrameReplayer.Pace.RECORDED;
+                // Fast replays compare detections across builds, so the quality level must not drift.
+                if (pace == FrameReplayer.Pace.AS_FAST_AS_POSSIBLE) adaptiveQualityEnabled = false;
+                Log.i("TAG", "replaying " + recording.getFrameCount() + " frames of " + replay + ", pace " + pace);
+                // Recorded timestamps are older than anything published live.
+                detectionStream.reset();
+                replayThread = new Thread(new FrameReplayer(recording, analysisScheduler, pace,
+                        (frames, elapsedNanos) -> onReplayFinished(recording, frames, elapsedNanos)), "frame-replay");
+                replayThread.start();
+            } else if (record != null) {
+                frameRecording = FrameRecording.create(new File(dir, record));
+                analysisScheduler.setRecording(frameRecording);
+                Log.i("TAG", "recording analysis frames to " + record);
             }
-            inputStream.close();
-            fos.close();
-            Log.d("TAG", "onManagerConnected: file" + casFile.getAbsolutePath());
-            faceDetector = new CascadeClassifier(casFile.getAbsolutePath());
-            if (faceDetector.empty()) {
-                faceDetector = null;
-            } else {
-                cascadeDir.delete();
+        } catch (IOException e) {
+            Log.e("TAG", "startRecordingOrReplay: ", e);
+        }
+    }
+
+    private void onReplayFinished(FrameRecording recording, int frames, long elapsedNanos) {
+        DetectionLogWriter log = detectionLog;
+        detectionLog = null;
+        try {
+            if (log != null) log.close();
+            recording.close();
+        } catch (IOException e) {
+            Log.e("TAG", "onReplayFinished: ", e);
+        }
+        Log.i("TAG", "replay finished: " + frames + " frames, " + metrics.getProcessedFrames() + " processed in "
+                + elapsedNanos / 1_000_000 + " ms");
+        captureExecutor.execute(this::dumpMetrics);
+    }
+
+    private void openSampleStore() {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            sampleStore = FaceSampleStore.open(new File(getFilesDir(), "face_samples.bin"), FACE_CROP_SIZE, FACE_CROP_SIZE);
+            long opened = SystemClock.elapsedRealtime();
+            FaceRecognizer recognizer = new FaceRecognizer(FACE_CROP_SIZE, MAX_RECOGNITION_DISTANCE);
+            for (int i = 0; i < sampleStore.size(); i++) {
+                if (sampleStore.isDeleted(i)) continue;
+                Mat crop = sampleStore.getCrop(i);
+                recognizer.enroll(sampleStore.getLabel(i), crop);
+                crop.release();
             }
+            faceRecognizer = recognizer;
+            recognizer.optimizeLater(indexExecutor);
+            Log.i("TAG", "openSampleStore: " + sampleStore.getLiveCount() + " samples in "
+                    + (opened - start) + " ms, enrolled in " + (SystemClock.elapsedRealtime() - opened) + " ms");
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.e("TAG", "openSampleStore: ", e);
+        }
+    }
+
+    /**
+     * Stores every face in {@code gray} under {@link #learningLabel}, turned upright. Capture thread only.
+     */
+    private void saveSamples(Mat gray, FaceBoxes faces, int rotationDegrees, long timestamp) {
+        if (sampleStore == null) return;
+        boolean sideways = rotationDegrees == 90 || rotationDegrees == 270;
+        try (MatArena.Scope scope = captureArena.openScope()) {
+            for (int i = 0; i < faces.size(); i++) {
+                Mat face = gray.submat(faces.y(i), faces.y(i) + faces.height(i), faces.x(i), faces.x(i) + faces.width(i));
+                Mat crop = scope.obtain(sideways ? face.cols() : face.rows(), sideways ? face.rows() : face.cols(), face.type());
+                FaceRecognizer.rotateUpright(face, crop, rotationDegrees);
+                face.release();
+                int index = sampleStore.append(learningLabel, timestamp, crop);
+                FaceRecognizer recognizer = faceRecognizer;
+                if (recognizer != null) {
+                    Mat stored = sampleStore.getCrop(index);
+                    recognizer.enroll(learningLabel, stored);
+                    stored.release();
+                    recognizer.optimizeLater(indexExecutor);
+                }
+            }
+        } catch (IOException e) {
+            Log.e("TAG", "saveSamples: ", e);
+        }
+    }
+
+    private void closeSampleStore() {
+        if (sampleStore == null) return;
+        try {
+            sampleStore.close();
+        } catch (IOException e) {
+            Log.e("TAG", "closeSampleStore: ", e);
+        }
+        sampleStore = null;
+    }
+
+    private void onCaptureDetected(FaceBoxes faces, int width, int height, int rotationDegrees, long timestamp, long requestedAt) {
+        long latency = System.nanoTime() - requestedAt;
+        metrics.record(PipelineMetrics.Stage.CAPTURE, latency);
+        Log.i("TAG", "capture: " + faces.size() + " faces in " + width + "x" + height + " after " + latency / 1_000_000
+                + " ms, peak " + metrics.getCapturePeakBytes() / 1024 + " KB");
+        if (!faces.isEmpty()) {
+            FaceDetectionResult result = resultPool.obtain(timestamp, System.nanoTime(), faces, width, height,
+                    rotationDegrees, true);
+            detectionStream.publish(result);
+            result.release();
+        }
+    }
+
+    private void loadDetector(long createdAt) {
+        long start = SystemClock.elapsedRealtime();
+        if (!OpenCVLoader.initDebug()) {
+            Log.d("ERROR", "Unable to load OpenCV");
+            return;
+        }
+        Log.d("SUCCESS", "OpenCV loaded");
+        long openCvLoaded = SystemClock.elapsedRealtime();
+        try {
+            String backend = getIntent().getStringExtra(EXTRA_DETECTOR);
+            FaceDetector detector = openDetector(backend != null ? backend : BACKEND_HAAR);
+            long extracted = SystemClock.elapsedRealtime();
+            // Tiling relies on the cascade's size limits, the network sees the whole frame anyway.
+            if (parallelDetectionEnabled && detector instanceof CascadeFaceDetector)
+                parallelDetector = ParallelFaceDetector.forAvailableCores((CascadeFaceDetector) detector);
+            uprightRotation = new PreprocessPipeline.Rotate();
+            preprocess = new PreprocessPipeline(metrics, uprightRotation);
+            detectionScale = new PreprocessPipeline.Downscale();
+            // Equalization only helps the detector, so it runs on the smaller detection input.
+            detectionPreprocess = equalizationEnabled
+                    ? new PreprocessPipeline(metrics, detectionScale, new PreprocessPipeline.Equalize(adaptiveEqualization))
+                    : new PreprocessPipeline(metrics, detectionScale);
+            faceTracker = new FaceTracker(quality.getCurrent().detectionInterval, MIN_TRACKING_CONFIDENCE);
+            motionGate = new MotionGate(MOTION_THUMBNAIL_WIDTH, MOTION_PIXEL_THRESHOLD, MOTION_CHANGED_FRACTION,
+                    MOTION_MAX_AGE_NANOS);
+            roiDetector = new RoiFaceDetector(detector, this::detectFullFrame, FULL_SWEEP_INTERVAL, ROI_MARGIN);
+            roiDetector.setScaleFactor(quality.getCurrent().scaleFactor);
+            faceDetector = detector;
+            detectorBackend = detector.getName();
+            metrics.setDetector(parallelDetector != null ? parallelDetector.getName() : detector.getName(),
+                    detector.getInitNanos());
+            analysisScheduler.setReady(true);
+            metrics.getStartup().mark(StartupTimeline.Milestone.DETECTOR_READY, SystemClock.elapsedRealtime());
+            runOnUiThread(this::onDetectorReady);
+            captureExecutor.execute(this::openSampleStore);
+            startRecordingOrReplay();
+            long ready = SystemClock.elapsedRealtime();
+            Log.i("TAG", "loadDetector: opencv " + (openCvLoaded - start) + " ms, " + detector.getName() + " detector "
+                    + (extracted - openCvLoaded) + " ms (model " + detector.getInitNanos() / 1_000_000 + " ms), setup "
+                    + (ready - extracted) + " ms, ready " + (ready - createdAt) + " ms after onCreate"
+                    + (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                    ? ", " + (ready - Process.getStartElapsedRealtime()) + " ms after process start" : ""));
+        } catch (IOException e) {
+            Log.e("TAG", "loadDetector: ", e);
+        }
+    }
+
+    /**
+     * Loads the detector for {@code backend}. Haar comes with the app; the LBP cascade and the DNN
+     * model are read from the models directory, and Haar is used when they are not there.
+     */
+    private FaceDetector openDetector(String backend) throws IOException {
+        File models = getExternalFilesDir("models");
+        if (models != null && BACKEND_LBP.equals(backend)) {
+            File cascade = new File(models, CascadeFaceDetector.LBP_MODEL);
+            if (cascade.isFile()) return new CascadeFaceDetector(BACKEND_LBP, cascade.getAbsolutePath());
+        } else if (models != null && BACKEND_DNN.equals(backend)) {
+            File model = new File(models, DnnFaceDetector.MODEL);
+            File config = new File(models, DnnFaceDetector.CONFIG);
+            if (model.isFile() && config.isFile())
+                return new DnnFaceDetector(model.getAbsolutePath(), config.getAbsolutePath(), DNN_CONFIDENCE);
         }
+        if (!BACKEND_HAAR.equals(backend))
+            Log.w("TAG", "openDetector: no " + backend + " model in " + models + ", using " + BACKEND_HAAR);
+        File cascade = new CascadeModelCache(this).get(R.raw.haarcascade_frontalface_alt2, CascadeFaceDetector.HAAR_MODEL);
+        return new CascadeFaceDetector(BACKEND_HAAR, cascade.getAbsolutePath());
     }
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Native Mats for work that has a clear end, a captured still or one frame, handed out by a
+ * {@link Scope} and all taken back when the scope closes. A returned Mat is kept by its rows, columns
+ * and type, and the next request for the same shape gets it back instead of a fresh native
+ * allocation. Idle Mats above {@code maxIdleBytes} are released, least recently used shape first.
+ * <p>
+ * Every byte the arena owns is counted in {@link PipelineMetrics#addNativeMatBytes}; Mats still out
+ * when the arena is released are counted as leaked. Thread safe, and a scope may be closed on another
+ * thread than the one that opened it, but one scope must not be used by two threads at once.
+ */
+public final class MatArena {
+
+    private final PipelineMetrics metrics;
+    private final long maxIdleBytes;
+    private final List<Shape> shapes = new ArrayList<>();
+    private long idleBytes;
+    private long useCount;
+    private int outstanding;
+    private boolean released;
+
+    public MatArena(PipelineMetrics metrics, long maxIdleBytes) {
+        this.metrics = metrics;
+        this.maxIdleBytes = maxIdleBytes;
+    }
+
+    public Scope openScope() {
+        return new Scope();
+    }
+
+    public synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+    /**
+     * Mats handed out by scopes that are not closed yet.
+     */
+    public synchronized int getOutstanding() {
+        return outstanding;
+    }
+
+    /**
+     * Releases every idle Mat. Mats still out are counted as leaked and released when their scope
+     * closes, from then on nothing is kept for reuse.
+     */
+    public synchronized void release() {
+        if (released) return;
+        if (outstanding > 0) metrics.addLeakedMats(outstanding);
+        released = true;
+        for (Shape shape : shapes) {
+            Mat mat;
+            while ((mat = shape.idle.pollFirst()) != null) {
+                mat.release();
+                metrics.addNativeMatBytes(-shape.bytes);
+            }
+        }
+        shapes.clear();
+        idleBytes = 0;
+    }
+
+    private synchronized Mat take(int rows, int cols, int type) {
+        outstanding++;
+        Shape shape = find(rows, cols, type);
+        if (shape != null) {
+            shape.lastUse = ++useCount;
+            Mat mat = shape.idle.pollFirst();
+            if (mat != null) {
+                idleBytes -= shape.bytes;
+                return mat;
+            }
+        }
+        Mat mat = new Mat(rows, cols, type);
+        metrics.addNativeMatBytes(bytes(rows, cols, type));
+        return mat;
+    }
+
+    private synchronized void give(Mat mat, long obtainedBytes) {
+        outstanding--;
+        // The caller may have released the Mat or let OpenCV reallocate it to another shape.
+        long bytes = mat.empty() ? 0 : bytes(mat.rows(), mat.cols(), mat.type());
+        if (bytes != obtainedBytes) metrics.addNativeMatBytes(bytes - obtainedBytes);
+        if (released || bytes == 0 || bytes > maxIdleBytes || !mat.isContinuous()) {
+            mat.release();
+            metrics.addNativeMatBytes(-bytes);
+            return;
+        }
+        Shape shape = find(mat.rows(), mat.cols(), mat.type());
+        if (shape == null) {
+            shape = new Shape(mat.rows(), mat.cols(), mat.type());
+            shapes.add(shape);
+        }
+        shape.idle.addFirst(mat);
+        shape.lastUse = ++useCount;
+        idleBytes += bytes;
+        while (idleBytes > maxIdleBytes) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Shape oldest = null;
+        for (Shape shape : shapes) {
+            if (!shape.idle.isEmpty() && (oldest == null || shape.lastUse < oldest.lastUse)) oldest = shape;
+        }
+        oldest.idle.pollLast().release();
+        idleBytes -= oldest.bytes;
+        metrics.addNativeMatBytes(-oldest.bytes);
+        if (oldest.idle.isEmpty()) shapes.remove(oldest);
+    }
+
+    private Shape find(int rows, int cols, int type) {
+        for (int i = 0; i < shapes.size(); i++) {
+            Shape shape = shapes.get(i);
+            if (shape.rows == rows && shape.cols == cols && shape.type == type) return shape;
+        }
+        return null;
+    }
+
+    private static long bytes(int rows, int cols, int type) {
+        return (long) rows * cols * CvType.ELEM_SIZE(type);
+    }
+
+    private static final class Shape {
+        final int rows;
+        final int cols;
+        final int type;
+        final long bytes;
+        final ArrayDeque<Mat> idle = new ArrayDeque<>();
+        long lastUse;
+
+        Shape(int rows, int cols, int type) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+            bytes = MatArena.bytes(rows, cols, type);
+        }
+    }
+
+    /**
+     * The Mats of one unit of work. Closing the scope gives all of them back to the arena, so no Mat
+     * obtained here may be used afterwards.
+     */
+    public final class Scope implements AutoCloseable {
+        private Mat[] mats = new Mat[4];
+        private long[] obtainedBytes = new long[4];
+        private int count;
+        private boolean closed;
+
+        private Scope() {
+        }
+
+        /**
+         * A Mat of the given shape with undefined contents.
+         */
+        public Mat obtain(int rows, int cols, int type) {
+            if (closed) throw new IllegalStateException("scope is closed");
+            Mat mat = take(rows, cols, type);
+            if (count == mats.length) {
+                mats = Arrays.copyOf(mats, count * 2);
+                obtainedBytes = Arrays.copyOf(obtainedBytes, count * 2);
+            }
+            mats[count] = mat;
+            obtainedBytes[count] = bytes(rows, cols, type);
+            count++;
+            return mat;
+        }
+
+        public Mat copyOf(Mat source) {
+            Mat copy = obtain(source.rows(), source.cols(), source.type());
+            source.copyTo(copy);
+            return copy;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            for (int i = 0; i < count; i++) {
+                give(mats[i], obtainedBytes[i]);
+                mats[i] = null;
+            }
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.mxcsyounes.facerecognition2;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.SystemClock;
+
+import java.util.Locale;
+
+/**
+ * Debug HUD listing per-stage p50/p95/p99 latencies, FPS, dropped frames, native Mat memory and the
+ * detection backend.
+ * The text is rebuilt at most twice a second so drawing the HUD does not distort what it measures.
+ */
+public class MetricsHudGraphic extends GraphicOverlay.Graphic {
+
+    private static final long REFRESH_INTERVAL_MS = 500;
+    private static final float TEXT_SIZE = 36f;
+    private static final float MARGIN = 24f;
+
+    private final PipelineMetrics metrics;
+    private final Paint textPaint;
+    private final Paint backgroundPaint;
+    private final String[] lines = new String[PipelineMetrics.Stage.values().length + 1];
+    private long lastRefresh;
+
+    public MetricsHudGraphic(GraphicOverlay overlay, PipelineMetrics metrics) {
+        super(overlay);
+        this.metrics = metrics;
+        textPaint = new Paint();
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(TEXT_SIZE);
+        textPaint.setTypeface(android.graphics.Typeface.MONOSPACE);
+        backgroundPaint = new Paint();
+        backgroundPaint.setColor(Color.argb(160, 0, 0, 0));
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        long now = SystemClock.uptimeMillis();
+        if (lines[0] == null || now - lastRefresh >= REFRESH_INTERVAL_MS) {
+            refresh();
+            lastRefresh = now;
+        }
+        float lineHeight = TEXT_SIZE * 1.2f;
+        canvas.drawRect(0, 0, canvas.getWidth(), MARGIN + lineHeight * lines.length, backgroundPaint);
+        float y = MARGIN + TEXT_SIZE;
+        for (String line : lines) {
+            canvas.drawText(line, MARGIN, y, textPaint);
+            y += lineHeight;
+        }
+    }
+
+    private void refresh() {
+        lines[0] = String.format(Locale.US, "%.1f fps  processed %d  dropped %d  skipped %.0f%%  mats %d/%d KB  leaked %d  %s",
+                metrics.getFps(), metrics.getProcessedFrames(), metrics.getDroppedFrames(),
+                metrics.getSkippedFrameRatio() * 100, metrics.getNativeMatBytes() / 1024,
+                metrics.getNativeMatPeakBytes() / 1024, metrics.getLeakedMats(), metrics.getDetectorName());
+        PipelineMetrics.Stage[] stages = PipelineMetrics.Stage.values();
+        for (int i = 0; i < stages.length; i++) {
+            LatencyHistogram histogram = metrics.getHistogram(stages[i]);
+            lines[i + 1] = String.format(Locale.US, "%-14s %7.2f %7.2f %7.2f ms", stages[i].label,
+                    histogram.getPercentile(50) / 1e6, histogram.getPercentile(95) / 1e6, histogram.getPercentile(99) / 1e6);
+        }
+    }
+}
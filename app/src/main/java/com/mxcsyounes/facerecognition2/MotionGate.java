@@ -0,0 +1,83 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Decides whether a frame can reuse the last detection results because the scene has not changed.
+ * The Y plane is shrunk with area interpolation to a thumbnail a few dozen pixels wide, so every
+ * thumbnail pixel is the mean of one block of the frame, and compared with the thumbnail of the last
+ * frame that went through. Blocks whose mean moved by more than {@code pixelThreshold} gray levels
+ * count as changed; the frame is skipped when the changed fraction stays below
+ * {@code changedFraction}. Comparing with the last frame that passed, not the previous one, lets a
+ * slow change add up until it triggers.
+ * <p>
+ * A frame always goes through when it comes {@code maxAgeNanos} or more after the last one that
+ * passed, or before it, and when the frame size or rotation changed. Not thread safe.
+ */
+public final class MotionGate {
+
+    private final int thumbnailWidth;
+    private final double pixelThreshold;
+    private final float changedFraction;
+    private final long maxAgeNanos;
+    private final Size thumbnailSize = new Size();
+    private final Mat thumbnail = new Mat();
+    private final Mat reference = new Mat();
+    private final Mat difference = new Mat();
+    private int referenceRotation;
+    private long referenceTimestamp;
+    private boolean valid;
+    private float lastChange;
+
+    public MotionGate(int thumbnailWidth, double pixelThreshold, float changedFraction, long maxAgeNanos) {
+        this.thumbnailWidth = thumbnailWidth;
+        this.pixelThreshold = pixelThreshold;
+        this.changedFraction = changedFraction;
+        this.maxAgeNanos = maxAgeNanos;
+    }
+
+    /**
+     * Returns true when {@code gray} looks like the last frame that passed and its results can be
+     * reused; otherwise the frame becomes the new reference and false is returned.
+     */
+    public boolean isUnchanged(Mat gray, int rotationDegrees, long timestampNanos) {
+        thumbnailSize.width = thumbnailWidth;
+        thumbnailSize.height = Math.max(1, Math.round((float) gray.rows() * thumbnailWidth / gray.cols()));
+        Imgproc.resize(gray, thumbnail, thumbnailSize, 0, 0, Imgproc.INTER_AREA);
+
+        boolean comparable = valid && rotationDegrees == referenceRotation
+                && timestampNanos >= referenceTimestamp && timestampNanos - referenceTimestamp < maxAgeNanos
+                && reference.rows() == thumbnail.rows() && reference.cols() == thumbnail.cols();
+        if (comparable) {
+            Core.absdiff(thumbnail, reference, difference);
+            Imgproc.threshold(difference, difference, pixelThreshold, 255, Imgproc.THRESH_BINARY);
+            lastChange = (float) Core.countNonZero(difference) / difference.total();
+            if (lastChange < changedFraction) {
+                return true;
+            }
+        } else {
+            lastChange = 1f;
+        }
+        thumbnail.copyTo(reference);
+        referenceRotation = rotationDegrees;
+        referenceTimestamp = timestampNanos;
+        valid = true;
+        return false;
+    }
+
+    /**
+     * Fraction of thumbnail blocks that changed in the last frame, 1 when it was not compared.
+     */
+    public float getLastChange() {
+        return lastChange;
+    }
+
+    public void release() {
+        thumbnail.release();
+        reference.release();
+        difference.release();
+    }
+}
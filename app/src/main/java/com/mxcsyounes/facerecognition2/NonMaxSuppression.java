@@ -0,0 +1,63 @@
+package com.mxcsyounes.facerecognition2;
+
+/**
+ * Greedy non-maximum suppression for cascade detections. The cascade gives no scores, so larger
+ * boxes win: they come from more complete windows when the same face was found in two tiles.
+ */
+public final class NonMaxSuppression {
+
+    private int[] order = new int[16];
+    private boolean[] suppressed = new boolean[16];
+
+    public void suppress(FaceBoxes candidates, float overlapThreshold, FaceBoxes out) {
+        int count = candidates.size();
+        if (order.length < count) {
+            order = new int[count];
+            suppressed = new boolean[count];
+        }
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+            suppressed[i] = false;
+        }
+        sortByAreaDescending(candidates, count);
+
+        out.clear();
+        for (int i = 0; i < count; i++) {
+            int a = order[i];
+            if (suppressed[a]) continue;
+            out.add(candidates.x(a), candidates.y(a), candidates.width(a), candidates.height(a), candidates.id(a));
+            for (int j = i + 1; j < count; j++) {
+                int b = order[j];
+                if (!suppressed[b] && overlaps(candidates, a, b, overlapThreshold)) {
+                    suppressed[b] = true;
+                }
+            }
+        }
+    }
+
+    private static boolean overlaps(FaceBoxes boxes, int a, int b, float overlapThreshold) {
+        float iou = FaceBoxes.intersectionOverUnion(boxes.x(a), boxes.y(a), boxes.width(a), boxes.height(a),
+                boxes.x(b), boxes.y(b), boxes.width(b), boxes.height(b));
+        return iou > overlapThreshold || contains(boxes, a, b);
+    }
+
+    private static boolean contains(FaceBoxes boxes, int outer, int inner) {
+        return boxes.x(inner) >= boxes.x(outer) && boxes.y(inner) >= boxes.y(outer)
+                && boxes.x(inner) + boxes.width(inner) <= boxes.x(outer) + boxes.width(outer)
+                && boxes.y(inner) + boxes.height(inner) <= boxes.y(outer) + boxes.height(outer);
+    }
+
+    private void sortByAreaDescending(FaceBoxes boxes, int count) {
+        // Insertion sort, detection counts are small and this keeps the pass allocation free.
+        for (int i = 1; i < count; i++) {
+            int current = order[i];
+            long area = (long) boxes.width(current) * boxes.height(current);
+            int j = i - 1;
+            while (j >= 0 && (long) boxes.width(order[j]) * boxes.height(order[j]) < area) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = current;
+        }
+    }
+}
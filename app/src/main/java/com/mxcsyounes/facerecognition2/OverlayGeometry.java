@@ -0,0 +1,42 @@
+package com.mxcsyounes.facerecognition2;
+
+import static java.lang.Math.ceil;
+
+/**
+ * Scale and centering offsets that map image coordinates onto the overlay view, kept free of
+ * Android types so the mapping can be measured off device.
+ */
+public final class OverlayGeometry {
+
+    public float scale = 1.0f;
+    public float offsetX;
+    public float offsetY;
+
+    public void update(float viewWidth, float viewHeight, float sourceWidth, float sourceHeight) {
+        float scaleX = viewWidth / sourceWidth;
+        float scaleY = viewHeight / sourceHeight;
+        scale = Math.max(scaleX, scaleY);
+
+        // Calculate offset (we need to center the overlay on the target)
+        offsetX = (float) ((viewWidth - ceil(sourceWidth * scale)) / 2.0f);
+        offsetY = (float) ((viewHeight - ceil(sourceHeight * scale)) / 2.0f);
+    }
+
+    /**
+     * Maps a box into view coordinates as {left, top, right, bottom}. Left and right are swapped
+     * because the preview is mirrored relative to the analysed image, and mirrored once more
+     * around the view center in front mode.
+     */
+    public void map(int left, int top, int right, int bottom, boolean frontMode, float viewWidth, float[] out) {
+        out[0] = right * scale + offsetX;
+        out[1] = top * scale + offsetY;
+        out[2] = left * scale + offsetX;
+        out[3] = bottom * scale + offsetY;
+
+        if (frontMode) {
+            float centerX = viewWidth / 2f;
+            out[0] = centerX + (centerX - out[0]);
+            out[2] = centerX - (out[2] - centerX);
+        }
+    }
+}
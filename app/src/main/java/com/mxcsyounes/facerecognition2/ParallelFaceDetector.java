@@ -0,0 +1,213 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the cascade on overlapping tiles in a fork-join pool, one classifier per worker since
+ * CascadeClassifier is not safe to share between threads.
+ * <p>
+ * Tiles overlap by {@code overlap} pixels and only look for faces up to that size, so every such
+ * face lies completely inside at least one tile. Larger faces are found by one extra pass over the
+ * whole frame restricted to sizes above the overlap, which is cheap because only the coarse pyramid
+ * levels are scanned. Duplicates from neighbouring tiles are merged with non-maximum suppression.
+ * Works with any cascade; workers load their own copy of it on first use.
+ * <p>
+ * The pool retires workers after a couple of idle seconds and, before Java 9, has no keep-alive
+ * setting. A retiring worker releases its buffers and leaves its classifier to the next worker, so
+ * a burst after an idle spell does not load the cascade again.
+ */
+public final class ParallelFaceDetector implements FaceDetector {
+
+    private static final double DEFAULT_SCALE_FACTOR = 1.1;
+    private static final int MIN_NEIGHBORS = 3;
+    private static final float MERGE_OVERLAP = 0.3f;
+
+    private final ForkJoinPool pool;
+    private final ConcurrentLinkedQueue<CascadeClassifier> idleClassifiers = new ConcurrentLinkedQueue<>();
+    private volatile boolean released;
+    private final DetectAll root = new DetectAll();
+    private final TileTask[] tiles;
+    private final TileTask fullFrame = new TileTask();
+    private final FaceBoxes candidates = new FaceBoxes(16);
+    private final NonMaxSuppression nonMaxSuppression = new NonMaxSuppression();
+    private final int columns;
+    private final int rows;
+    private final float overlapFraction;
+    private final String name;
+    private final long initNanos;
+    private double scaleFactor = DEFAULT_SCALE_FACTOR;
+    private int minFaceSize;
+    private int maxFaceSize;
+
+    public ParallelFaceDetector(CascadeFaceDetector cascade, int parallelism, float overlapFraction) {
+        this.overlapFraction = overlapFraction;
+        name = cascade.getName() + " x" + parallelism;
+        initNanos = cascade.getInitNanos();
+        String cascadePath = cascade.getCascadePath();
+        columns = parallelism >= 4 ? (parallelism + 1) / 2 : Math.max(1, parallelism);
+        rows = parallelism >= 4 ? 2 : 1;
+        tiles = new TileTask[columns * rows];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new TileTask();
+        }
+        pool = new ForkJoinPool(parallelism, p -> new DetectorWorker(p, cascadePath), null, false);
+    }
+
+    public static ParallelFaceDetector forAvailableCores(CascadeFaceDetector cascade) {
+        return new ParallelFaceDetector(cascade, Runtime.getRuntime().availableProcessors(), 0.25f);
+    }
+
+    /**
+     * Call from the thread that calls detect.
+     */
+    @Override
+    public void setParameters(double scaleFactor, int minFaceSize, int maxFaceSize) {
+        this.scaleFactor = scaleFactor;
+        this.minFaceSize = minFaceSize;
+        this.maxFaceSize = maxFaceSize;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The load time of one classifier; each worker pays it again on its first detection.
+     */
+    @Override
+    public long getInitNanos() {
+        return initNanos;
+    }
+
+    /**
+     * Detects on a gray image.
+     */
+    @Override
+    public void detect(Mat gray, FaceBoxes out) {
+        int width = gray.cols();
+        int height = gray.rows();
+        int overlap = Math.round(Math.min(width, height) * overlapFraction);
+        int cellWidth = (width + columns - 1) / columns;
+        int cellHeight = (height + rows - 1) / rows;
+        // Tiles only look for faces up to the overlap, none are left once the minimum is larger.
+        boolean tilesNeeded = minFaceSize <= overlap;
+        int tileMaxSize = maxFaceSize > 0 ? Math.min(overlap, maxFaceSize) : overlap;
+        boolean fullFrameNeeded = maxFaceSize <= 0 || maxFaceSize > overlap;
+
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < columns; col++) {
+                int left = col * cellWidth;
+                int top = row * cellHeight;
+                int right = Math.min(width, left + cellWidth + overlap);
+                int bottom = Math.min(height, top + cellHeight + overlap);
+                tiles[row * columns + col].prepare(gray, left, top, tilesNeeded ? right - left : 0, bottom - top,
+                        scaleFactor, minFaceSize, tileMaxSize);
+            }
+        }
+        fullFrame.prepare(gray, 0, 0, fullFrameNeeded ? width : 0, height, scaleFactor,
+                Math.max(overlap + 1, minFaceSize), maxFaceSize);
+
+        root.reinitialize();
+        pool.invoke(root);
+
+        candidates.clear();
+        for (TileTask tile : tiles) {
+            appendTo(tile.faces, candidates);
+        }
+        appendTo(fullFrame.faces, candidates);
+        nonMaxSuppression.suppress(candidates, MERGE_OVERLAP, out);
+    }
+
+    @Override
+    public void release() {
+        released = true;
+        pool.shutdown();
+        idleClassifiers.clear();
+    }
+
+    private static void appendTo(FaceBoxes source, FaceBoxes target) {
+        for (int i = 0; i < source.size(); i++) {
+            target.add(source.x(i), source.y(i), source.width(i), source.height(i));
+        }
+    }
+
+    private final class DetectorWorker extends ForkJoinWorkerThread {
+        final CascadeClassifier classifier;
+        final MatOfRect detections = new MatOfRect();
+
+        DetectorWorker(ForkJoinPool pool, String cascadePath) {
+            super(pool);
+            setName("face-detector-" + getPoolIndex());
+            CascadeClassifier idle = idleClassifiers.poll();
+            classifier = idle != null ? idle : new CascadeClassifier(cascadePath);
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            detections.release();
+            // The OpenCV 4.3 bindings have no explicit release for a classifier, dropping the last
+            // reference frees it.
+            if (!released) idleClassifiers.offer(classifier);
+            super.onTermination(exception);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class DetectAll extends RecursiveAction {
+        @Override
+        protected void compute() {
+            for (TileTask tile : tiles) {
+                tile.reinitialize();
+            }
+            fullFrame.reinitialize();
+            fullFrame.fork();
+            invokeAll(tiles);
+            fullFrame.join();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class TileTask extends RecursiveAction {
+        final FaceBoxes faces = new FaceBoxes();
+        final Rect area = new Rect();
+        final Size minSize = new Size();
+        final Size maxSize = new Size();
+        Mat frame;
+        double scaleFactor;
+
+        void prepare(Mat frame, int x, int y, int width, int height, double scaleFactor, int minFaceSize, int maxFaceSize) {
+            this.frame = frame;
+            this.scaleFactor = scaleFactor;
+            area.x = x;
+            area.y = y;
+            area.width = width;
+            area.height = height;
+            minSize.width = minSize.height = minFaceSize;
+            maxSize.width = maxSize.height = maxFaceSize;
+        }
+
+        @Override
+        protected void compute() {
+            DetectorWorker worker = (DetectorWorker) Thread.currentThread();
+            faces.clear();
+            if (area.width <= 0 || area.height <= 0) return;
+            Mat tile = frame.submat(area);
+            worker.classifier.detectMultiScale(tile, worker.detections, scaleFactor, MIN_NEIGHBORS, 0, minSize, maxSize);
+            tile.release();
+            faces.copyFrom(worker.detections);
+            for (int i = 0; i < faces.size(); i++) {
+                faces.set(i, faces.x(i) + area.x, faces.y(i) + area.y, faces.width(i), faces.height(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.mxcsyounes.facerecognition2;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage latency histograms and frame counters for the analysis pipeline. Recording is lock-free
+ * and allocation free, so it can stay enabled on the hot path.
+ */
+public final class PipelineMetrics {
+
+    public enum Stage {
+        YUV_COPY("yuv_copy"),
+        MAT_CREATION("mat_creation"),
+        DECODE("decode"),
+        MOTION_GATE("motion_gate"),
+        COLOR_CONVERSION("color_convert"),
+        ROTATION("rotate"),
+        EQUALIZATION("equalize"),
+        DOWNSCALE("downscale"),
+        DETECTION("detection"),
+        RECOGNITION("recognition"),
+        RESULT_MAPPING("result_mapping"),
+        OVERLAY_DRAW("overlay_draw"),
+        CAPTURE("capture");
+
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final double FPS_SMOOTHING = 0.1;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+    private final AtomicLong nativeMatBytes = new AtomicLong();
+    private final AtomicLong nativeMatPeakBytes = new AtomicLong();
+    private final AtomicLong leakedMats = new AtomicLong();
+    private final AtomicLong capturePeakBytes = new AtomicLong();
+    private final AtomicLong gatedFrames = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+    private final AtomicLong recognizedFaces = new AtomicLong();
+    private final AtomicLong gallerySearches = new AtomicLong();
+    private final StartupTimeline startup = new StartupTimeline();
+    private volatile FrameSource frameSource;
+    private volatile String detectorName = "none";
+    private volatile long detectorInitNanos;
+    private volatile double frameIntervalNanos;
+    private long lastFrameNanos;
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Called by the single analysis thread once per processed frame.
+     */
+    public void onFrameProcessed(long nowNanos) {
+        if (lastFrameNanos != 0) {
+            long interval = nowNanos - lastFrameNanos;
+            double previous = frameIntervalNanos;
+            frameIntervalNanos = previous == 0 ? interval : previous + FPS_SMOOTHING * (interval - previous);
+        }
+        lastFrameNanos = nowNanos;
+    }
+
+    public double getFps() {
+        double interval = frameIntervalNanos;
+        return interval > 0 ? 1e9 / interval : 0;
+    }
+
+    public void setFrameSource(FrameSource frameSource) {
+        this.frameSource = frameSource;
+    }
+
+    public long getProcessedFrames() {
+        FrameSource source = frameSource;
+        return source != null ? source.getProcessedFrames() : 0;
+    }
+
+    public long getDroppedFrames() {
+        FrameSource source = frameSource;
+        return source != null ? source.getDroppedFrames() : 0;
+    }
+
+    /**
+     * Names the detection backend whose latencies the {@link Stage#DETECTION} histogram holds, and
+     * how long its model took to load.
+     */
+    public void setDetector(String name, long initNanos) {
+        detectorInitNanos = initNanos;
+        detectorName = name;
+    }
+
+    public String getDetectorName() {
+        return detectorName;
+    }
+
+    public long getDetectorInitNanos() {
+        return detectorInitNanos;
+    }
+
+    /**
+     * Startup milestones; {@link #reset()} leaves them alone.
+     */
+    public StartupTimeline getStartup() {
+        return startup;
+    }
+
+    public void addNativeMatBytes(long delta) {
+        long bytes = nativeMatBytes.addAndGet(delta);
+        if (delta > 0) raise(nativeMatPeakBytes, bytes);
+    }
+
+    public long getNativeMatBytes() {
+        return nativeMatBytes.get();
+    }
+
+    public long getNativeMatPeakBytes() {
+        return nativeMatPeakBytes.get();
+    }
+
+    /**
+     * Counts Mats that were never given back to their owner before it was released.
+     */
+    public void addLeakedMats(int count) {
+        leakedMats.addAndGet(count);
+    }
+
+    public long getLeakedMats() {
+        return leakedMats.get();
+    }
+
+    /**
+     * Counts a frame seen by the motion gate, and whether it skipped detection.
+     */
+    public void recordMotionGate(boolean skipped) {
+        gatedFrames.incrementAndGet();
+        if (skipped) skippedFrames.incrementAndGet();
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames.get();
+    }
+
+    /**
+     * Fraction of the frames seen by the motion gate that reused earlier results, 0 before any.
+     */
+    public double getSkippedFrameRatio() {
+        long gated = gatedFrames.get();
+        return gated > 0 ? (double) skippedFrames.get() / gated : 0;
+    }
+
+    /**
+     * Counts the faces given a label in one frame and how many of them needed a gallery search, the
+     * rest reused a cached result.
+     */
+    public void recordRecognitions(int faces, int searched) {
+        recognizedFaces.addAndGet(faces);
+        gallerySearches.addAndGet(searched);
+    }
+
+    public long getRecognizedFaces() {
+        return recognizedFaces.get();
+    }
+
+    public long getGallerySearches() {
+        return gallerySearches.get();
+    }
+
+    /**
+     * Records the memory in use right after a capture was decoded; only the highest value is kept.
+     */
+    public void recordCaptureBytes(long bytes) {
+        raise(capturePeakBytes, bytes);
+    }
+
+    public long getCapturePeakBytes() {
+        return capturePeakBytes.get();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        capturePeakBytes.set(0);
+        gatedFrames.set(0);
+        skippedFrames.set(0);
+        recognizedFaces.set(0);
+        gallerySearches.set(0);
+        nativeMatPeakBytes.set(nativeMatBytes.get());
+    }
+
+    private static void raise(AtomicLong peak, long value) {
+        long current;
+        do {
+            current = peak.get();
+            if (value <= current) return;
+        } while (!peak.compareAndSet(current, value));
+    }
+
+    public void writeCsv(Writer writer) throws IOException {
+        writer.write("stage,count,p50_us,p95_us,p99_us\n");
+        for (Stage stage : STAGES) {
+            LatencyHistogram histogram = getHistogram(stage);
+            writer.write(String.format(Locale.US, "%s,%d,%.1f,%.1f,%.1f\n", stage.label, histogram.getCount(),
+                    histogram.getPercentile(50) / 1e3, histogram.getPercentile(95) / 1e3, histogram.getPercentile(99) / 1e3));
+        }
+        writer.write(String.format(Locale.US, "# fps=%.1f processed=%d dropped=%d native_mat_bytes=%d native_mat_peak_bytes=%d"
+                        + " leaked_mats=%d capture_peak_bytes=%d skipped=%d skip_ratio=%.3f recognized_faces=%d gallery_searches=%d"
+                        + " detector=%s detector_init_ms=%.1f\n",
+                getFps(), getProcessedFrames(), getDroppedFrames(), getNativeMatBytes(), getNativeMatPeakBytes(),
+                getLeakedMats(), getCapturePeakBytes(), getSkippedFrames(), getSkippedFrameRatio(),
+                getRecognizedFaces(), getGallerySearches(),
+                detectorName, detectorInitNanos / 1e6));
+        writer.write("# startup_ms " + startup + "\n");
+    }
+
+    public void writeJson(Writer writer) throws IOException {
+        writer.write(String.format(Locale.US, "{\"fps\":%.2f,\"processed\":%d,\"dropped\":%d,\"native_mat_bytes\":%d,\"native_mat_peak_bytes\":%d,"
+                        + "\"leaked_mats\":%d,\"capture_peak_bytes\":%d,\"skipped\":%d,\"skip_ratio\":%.3f,"
+                        + "\"recognized_faces\":%d,\"gallery_searches\":%d,\"detector\":\"%s\",\"detector_init_ms\":%.1f,\"stages\":{",
+                getFps(), getProcessedFrames(), getDroppedFrames(), getNativeMatBytes(), getNativeMatPeakBytes(),
+                getLeakedMats(), getCapturePeakBytes(), getSkippedFrames(), getSkippedFrameRatio(),
+                getRecognizedFaces(), getGallerySearches(),
+                detectorName, detectorInitNanos / 1e6));
+        for (int i = 0; i < STAGES.length; i++) {
+            LatencyHistogram histogram = getHistogram(STAGES[i]);
+            if (i > 0) writer.write(',');
+            writer.write(String.format(Locale.US, "\"%s\":{\"count\":%d,\"p50_us\":%.1f,\"p95_us\":%.1f,\"p99_us\":%.1f}",
+                    STAGES[i].label, histogram.getCount(), histogram.getPercentile(50) / 1e3,
+                    histogram.getPercentile(95) / 1e3, histogram.getPercentile(99) / 1e3));
+        }
+        writer.write("},\"startup_ms\":{");
+        StartupTimeline.Milestone[] milestones = StartupTimeline.Milestone.values();
+        for (int i = 0; i < milestones.length; i++) {
+            if (i > 0) writer.write(',');
+            writer.write("\"" + milestones[i].label + "\":" + startup.sinceStart(milestones[i]));
+        }
+        writer.write("}}\n");
+    }
+
+    public interface FrameSource {
+        long getProcessedFrames();
+
+        long getDroppedFrames();
+    }
+}
@@ -0,0 +1,37 @@
+package com.mxcsyounes.facerecognition2;
+
+import android.graphics.Canvas;
+
+/**
+ * Face boxes drawn from {@link FaceTrackSmoother} predictions for the moment of drawing. While any
+ * track is alive it asks for the next vsync, so boxes move at display rate between detections.
+ */
+public class PredictiveFaceBoxesGraphic extends FaceBoxesGraphic {
+
+    private final FaceTrackSmoother smoother;
+    private final FaceBoxes predicted = new FaceBoxes();
+    private volatile int frameWidth;
+    private volatile int frameHeight;
+    private volatile int rotationDegrees;
+
+    public PredictiveFaceBoxesGraphic(GraphicOverlay overlay, FaceTrackSmoother smoother) {
+        super(overlay);
+        this.smoother = smoother;
+    }
+
+    public void setFrameInfo(int frameWidth, int frameHeight, int rotationDegrees) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.rotationDegrees = rotationDegrees;
+    }
+
+    @Override
+    public synchronized void draw(Canvas canvas) {
+        boolean alive = smoother.predict(System.nanoTime(), predicted);
+        setBoxes(predicted, frameWidth, frameHeight, rotationDegrees);
+        super.draw(canvas);
+        if (alive) {
+            postInvalidate();
+        }
+    }
+}
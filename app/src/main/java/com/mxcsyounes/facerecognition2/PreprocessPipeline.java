@@ -0,0 +1,168 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.CLAHE;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A chain of image preprocessing stages, configured once and run on every frame. Each stage writes
+ * into a Mat it allocated up front, or hands its input through untouched when it has nothing to do,
+ * so once the first frame has sized the buffers a run allocates nothing. The time every stage takes
+ * is recorded under its own {@link PipelineMetrics.Stage}, which shows which stages pay for themselves.
+ * <p>
+ * The pipeline starts from an image already in a Mat; for camera frames that is the Y plane
+ * {@link AnalysisFrame} copies out. Not thread safe, every thread needs its own stages.
+ */
+public final class PreprocessPipeline {
+
+    private final PipelineMetrics metrics;
+    private final Stage[] stages;
+
+    public PreprocessPipeline(PipelineMetrics metrics, Stage... stages) {
+        this.metrics = metrics;
+        this.stages = stages.clone();
+    }
+
+    /**
+     * Runs every stage in order and returns the result: {@code input} itself, or a Mat owned by a
+     * stage that stays valid until the next run.
+     */
+    public Mat process(Mat input) {
+        Mat image = input;
+        for (Stage stage : stages) {
+            long start = System.nanoTime();
+            image = stage.apply(image);
+            metrics.record(stage.metric, System.nanoTime() - start);
+        }
+        return image;
+    }
+
+    public void release() {
+        for (Stage stage : stages) {
+            stage.output.release();
+        }
+    }
+
+    public abstract static class Stage {
+        final PipelineMetrics.Stage metric;
+        final Mat output = new Mat();
+
+        Stage(PipelineMetrics.Stage metric) {
+            this.metric = metric;
+        }
+
+        abstract Mat apply(Mat input);
+    }
+
+    /**
+     * Turns the image upright by the rotation the camera reports, so everything after it works in
+     * display orientation and nothing has to rotate results again.
+     */
+    public static final class Rotate extends Stage {
+        private int degrees;
+
+        public Rotate() {
+            super(PipelineMetrics.Stage.ROTATION);
+        }
+
+        /**
+         * Clockwise rotation that makes the next images upright: 0, 90, 180 or 270.
+         */
+        public void setDegrees(int degrees) {
+            this.degrees = degrees;
+        }
+
+        public int getDegrees() {
+            return degrees;
+        }
+
+        @Override
+        Mat apply(Mat input) {
+            switch (degrees) {
+                case 90:
+                    Core.rotate(input, output, Core.ROTATE_90_CLOCKWISE);
+                    return output;
+                case 180:
+                    Core.rotate(input, output, Core.ROTATE_180);
+                    return output;
+                case 270:
+                    Core.rotate(input, output, Core.ROTATE_90_COUNTERCLOCKWISE);
+                    return output;
+                default:
+                    return input;
+            }
+        }
+    }
+
+    /**
+     * Shrinks the image by a factor below 1 with area interpolation; larger factors pass it through.
+     */
+    public static final class Downscale extends Stage {
+        private final Size size = new Size();
+        private float scale = 1f;
+
+        public Downscale() {
+            super(PipelineMetrics.Stage.DOWNSCALE);
+        }
+
+        public void setScale(float scale) {
+            this.scale = scale;
+        }
+
+        public float getScale() {
+            return scale;
+        }
+
+        @Override
+        Mat apply(Mat input) {
+            if (scale >= 1f) return input;
+            size.width = Math.round(input.cols() * scale);
+            size.height = Math.round(input.rows() * scale);
+            Imgproc.resize(input, output, size, 0, 0, Imgproc.INTER_AREA);
+            return output;
+        }
+    }
+
+    /**
+     * Spreads the gray levels of a gray image, globally with {@code equalizeHist} or per tile with
+     * CLAHE, which does not blow up noise in flat regions but costs several times more.
+     */
+    public static final class Equalize extends Stage {
+        private final CLAHE clahe;
+
+        public Equalize(boolean adaptive) {
+            super(PipelineMetrics.Stage.EQUALIZATION);
+            clahe = adaptive ? Imgproc.createCLAHE(2.0, new Size(8, 8)) : null;
+        }
+
+        @Override
+        Mat apply(Mat input) {
+            if (clahe != null) {
+                clahe.apply(input, output);
+            } else {
+                Imgproc.equalizeHist(input, output);
+            }
+            return output;
+        }
+    }
+
+    /**
+     * {@code Imgproc.cvtColor} with a fixed conversion code, for example {@code COLOR_RGBA2GRAY}.
+     */
+    public static final class ColorConversion extends Stage {
+        private final int code;
+
+        public ColorConversion(int code) {
+            super(PipelineMetrics.Stage.COLOR_CONVERSION);
+            this.code = code;
+        }
+
+        @Override
+        Mat apply(Mat input) {
+            Imgproc.cvtColor(input, output, code);
+            return output;
+        }
+    }
+}
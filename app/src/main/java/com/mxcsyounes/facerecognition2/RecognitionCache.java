@@ -0,0 +1,171 @@
+package com.mxcsyounes.facerecognition2;
+
+/**
+ * Identity results per face track, so a face that stays in view is matched against the gallery once
+ * rather than on every frame. Each entry keeps the track's label, how confident the match was, its
+ * descriptor and the box size and rotation it was computed for.
+ * <p>
+ * Trust in an entry decays with its age: a perfect match is kept for {@code maxRefreshNanos}, a weak
+ * one or an unknown face only for {@code minRefreshNanos}, linearly in between. A track is recognized
+ * from scratch when it is new, when its box grew or shrank by more than {@code maxScaleChange}, when
+ * the rotation or the gallery changed, and, for unknown faces, when trust ran out. A labelled track
+ * whose trust ran out is {@link #STALE}: its descriptor may confirm the label without a gallery search.
+ * <p>
+ * Entries of tracks not seen for {@code ttlNanos} are dropped, and when the entries would take more
+ * than {@code maxBytes} the least recently seen one is replaced. Not thread safe; {@link #getLabel()},
+ * {@link #getDescriptor()}, {@link #confirm} and {@link #put} refer to the track last passed to
+ * {@link #lookup}.
+ */
+public final class RecognitionCache {
+
+    public static final int MISS = 0;
+    public static final int HIT = 1;
+    public static final int STALE = 2;
+
+    // Object headers, fields and the array header of one entry, roughly.
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final int descriptorLength;
+    private final long ttlNanos;
+    private final long minRefreshNanos;
+    private final long maxRefreshNanos;
+    private final float maxScaleChange;
+    private final Entry[] entries;
+    private int size;
+    private Entry current;
+    private int currentTrackId = FaceBoxes.NO_ID;
+
+    public RecognitionCache(int descriptorLength, long maxBytes, long ttlNanos, long minRefreshNanos,
+                            long maxRefreshNanos, float maxScaleChange) {
+        this.descriptorLength = descriptorLength;
+        this.ttlNanos = ttlNanos;
+        this.minRefreshNanos = minRefreshNanos;
+        this.maxRefreshNanos = maxRefreshNanos;
+        this.maxScaleChange = maxScaleChange;
+        long entryBytes = descriptorLength * 4L + ENTRY_OVERHEAD_BYTES;
+        entries = new Entry[(int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, maxBytes / entryBytes))];
+    }
+
+    /**
+     * Decides what to do for the face of {@code trackId} in a box of the given size: {@link #HIT} when
+     * the cached label still holds, {@link #STALE} when it may after checking the descriptor, and
+     * {@link #MISS} when the face has to be recognized again.
+     */
+    public int lookup(int trackId, int width, int height, int rotationDegrees, int gallerySize, long nowNanos) {
+        evictExpired(nowNanos);
+        currentTrackId = trackId;
+        current = find(trackId);
+        if (current == null) return MISS;
+        current.lastSeenNanos = nowNanos;
+        float scale = (float) width * height / ((float) current.width * current.height);
+        if (scale > maxScaleChange * maxScaleChange || scale * maxScaleChange * maxScaleChange < 1f
+                || rotationDegrees != current.rotationDegrees || gallerySize != current.gallerySize) {
+            return MISS;
+        }
+        long trusted = minRefreshNanos + (long) ((maxRefreshNanos - minRefreshNanos) * current.confidence);
+        if (nowNanos - current.recognizedNanos < trusted) return HIT;
+        return current.label != FaceBoxes.NO_LABEL ? STALE : MISS;
+    }
+
+    public int getLabel() {
+        return current.label;
+    }
+
+    /**
+     * The descriptor the label was found with. Read only.
+     */
+    public float[] getDescriptor() {
+        return current.descriptor;
+    }
+
+    /**
+     * Trusts the label of a {@link #STALE} entry again, as if it had just been recognized.
+     */
+    public void confirm(long nowNanos) {
+        current.recognizedNanos = nowNanos;
+    }
+
+    /**
+     * Stores the result of recognizing the face looked up last. {@code confidence} is 1 for a perfect
+     * match and 0 for no match.
+     */
+    public void put(int label, float confidence, float[] descriptor, int width, int height, int rotationDegrees,
+                    int gallerySize, long nowNanos) {
+        Entry entry = current;
+        if (entry == null) {
+            entry = allocate();
+            entry.trackId = currentTrackId;
+            current = entry;
+        }
+        entry.label = label;
+        entry.confidence = Math.max(0f, Math.min(1f, confidence));
+        System.arraycopy(descriptor, 0, entry.descriptor, 0, descriptorLength);
+        entry.width = Math.max(1, width);
+        entry.height = Math.max(1, height);
+        entry.rotationDegrees = rotationDegrees;
+        entry.gallerySize = gallerySize;
+        entry.recognizedNanos = nowNanos;
+        entry.lastSeenNanos = nowNanos;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    public void clear() {
+        size = 0;
+        current = null;
+        currentTrackId = FaceBoxes.NO_ID;
+    }
+
+    private Entry find(int trackId) {
+        for (int i = 0; i < size; i++) {
+            if (entries[i].trackId == trackId) return entries[i];
+        }
+        return null;
+    }
+
+    private Entry allocate() {
+        if (size < entries.length) {
+            if (entries[size] == null) entries[size] = new Entry(descriptorLength);
+            return entries[size++];
+        }
+        Entry oldest = entries[0];
+        for (int i = 1; i < size; i++) {
+            if (entries[i].lastSeenNanos < oldest.lastSeenNanos) oldest = entries[i];
+        }
+        return oldest;
+    }
+
+    private void evictExpired(long nowNanos) {
+        for (int i = size - 1; i >= 0; i--) {
+            Entry entry = entries[i];
+            if (nowNanos - entry.lastSeenNanos <= ttlNanos) continue;
+            // Swapped behind the live entries, so its descriptor array is reused.
+            size--;
+            entries[i] = entries[size];
+            entries[size] = entry;
+        }
+    }
+
+    private static final class Entry {
+        final float[] descriptor;
+        int trackId;
+        int label;
+        float confidence;
+        int width;
+        int height;
+        int rotationDegrees;
+        int gallerySize;
+        long recognizedNanos;
+        long lastSeenNanos;
+
+        Entry(int descriptorLength) {
+            descriptor = new float[descriptorLength];
+        }
+    }
+}
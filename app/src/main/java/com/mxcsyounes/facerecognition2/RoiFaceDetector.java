@@ -0,0 +1,86 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Region-of-interest detection: once faces are known, the detector only scans a margin around each
+ * previous box, restricted to sizes close to the previous face size. A full frame sweep still runs
+ * every {@code fullSweepInterval} calls, and whenever the previous frame had no faces, to pick up
+ * faces entering the view. Results are returned in full frame coordinates.
+ */
+public final class RoiFaceDetector {
+
+    private static final double DEFAULT_SCALE_FACTOR = 1.1;
+    private static final float MIN_SIZE_RATIO = 0.7f;
+    private static final float MAX_SIZE_RATIO = 1.4f;
+    private static final float MERGE_OVERLAP = 0.3f;
+
+    private final FaceDetector regionDetector;
+    private final FullFrameDetector fullFrameDetector;
+    private final int fullSweepInterval;
+    private final float margin;
+    private final FaceBoxes previous = new FaceBoxes();
+    private final FaceBoxes candidates = new FaceBoxes();
+    private final FaceBoxes roiFaces = new FaceBoxes();
+    private final NonMaxSuppression nonMaxSuppression = new NonMaxSuppression();
+    private final Rect roi = new Rect();
+    private double scaleFactor = DEFAULT_SCALE_FACTOR;
+    private int callsSinceSweep;
+
+    public RoiFaceDetector(FaceDetector regionDetector, FullFrameDetector fullFrameDetector, int fullSweepInterval, float margin) {
+        this.regionDetector = regionDetector;
+        this.fullFrameDetector = fullFrameDetector;
+        this.fullSweepInterval = fullSweepInterval;
+        this.margin = margin;
+    }
+
+    public void detect(Mat gray, FaceBoxes out) {
+        if (previous.isEmpty() || ++callsSinceSweep >= fullSweepInterval) {
+            fullFrameDetector.detect(gray, out);
+            callsSinceSweep = 0;
+        } else {
+            detectAroundPrevious(gray, out);
+        }
+        previous.copyFrom(out);
+    }
+
+    public void setScaleFactor(double scaleFactor) {
+        this.scaleFactor = scaleFactor;
+    }
+
+    public void reset() {
+        previous.clear();
+        callsSinceSweep = 0;
+    }
+
+    private void detectAroundPrevious(Mat gray, FaceBoxes out) {
+        candidates.clear();
+        for (int i = 0; i < previous.size(); i++) {
+            int width = previous.width(i);
+            int height = previous.height(i);
+            int marginX = Math.round(width * margin);
+            int marginY = Math.round(height * margin);
+            roi.x = Math.max(0, previous.x(i) - marginX);
+            roi.y = Math.max(0, previous.y(i) - marginY);
+            roi.width = Math.min(gray.cols(), previous.x(i) + width + marginX) - roi.x;
+            roi.height = Math.min(gray.rows(), previous.y(i) + height + marginY) - roi.y;
+            if (roi.width <= 0 || roi.height <= 0) continue;
+
+            regionDetector.setParameters(scaleFactor, Math.round(Math.min(width, height) * MIN_SIZE_RATIO),
+                    Math.round(Math.max(width, height) * MAX_SIZE_RATIO));
+            Mat region = gray.submat(roi);
+            regionDetector.detect(region, roiFaces);
+            region.release();
+
+            for (int j = 0; j < roiFaces.size(); j++) {
+                candidates.add(roiFaces.x(j) + roi.x, roiFaces.y(j) + roi.y, roiFaces.width(j), roiFaces.height(j));
+            }
+        }
+        nonMaxSuppression.suppress(candidates, MERGE_OVERLAP, out);
+    }
+
+    public interface FullFrameDetector {
+        void detect(Mat gray, FaceBoxes out);
+    }
+}
@@ -0,0 +1,72 @@
+package com.mxcsyounes.facerecognition2;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * When each startup milestone was first reached, in milliseconds of {@code SystemClock.elapsedRealtime()},
+ * the clock {@code Process.getStartElapsedRealtime()} uses. Only the first mark of a milestone counts,
+ * so the per-frame milestones can be marked from the hot path: once set, a mark is a single read.
+ * Thread safe.
+ */
+public final class StartupTimeline {
+
+    public enum Milestone {
+        PROCESS_START("process_start"),
+        ACTIVITY_CREATED("activity_created"),
+        PREVIEW_BOUND("preview_bound"),
+        FIRST_PREVIEW_FRAME("first_preview_frame"),
+        DETECTOR_READY("detector_ready"),
+        ANALYSIS_BOUND("analysis_bound"),
+        FIRST_ANALYZED_FRAME("first_analyzed_frame"),
+        FIRST_DETECTION("first_detection");
+
+        public final String label;
+
+        Milestone(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Milestone[] MILESTONES = Milestone.values();
+
+    // 0 until marked, elapsedRealtime is positive once the device has booted.
+    private final AtomicLongArray times = new AtomicLongArray(MILESTONES.length);
+
+    /**
+     * Records {@code elapsedMillis} for {@code milestone} unless it was reached before. Returns true
+     * for the first mark.
+     */
+    public boolean mark(Milestone milestone, long elapsedMillis) {
+        int index = milestone.ordinal();
+        return times.get(index) == 0 && times.compareAndSet(index, 0, elapsedMillis);
+    }
+
+    public boolean isMarked(Milestone milestone) {
+        return times.get(milestone.ordinal()) != 0;
+    }
+
+    /**
+     * Milliseconds from the start of the process to {@code milestone}, or -1 when it was not reached.
+     * Where the process start is unknown, before API 24, the activity creation is the start.
+     */
+    public long sinceStart(Milestone milestone) {
+        long time = times.get(milestone.ordinal());
+        if (time == 0) return -1;
+        long start = times.get(Milestone.PROCESS_START.ordinal());
+        if (start == 0) start = times.get(Milestone.ACTIVITY_CREATED.ordinal());
+        return start != 0 ? time - start : -1;
+    }
+
+    /**
+     * Every milestone as {@code label=ms}, separated by spaces, -1 for the ones not reached.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Milestone milestone : MILESTONES) {
+            if (builder.length() > 0) builder.append(' ');
+            builder.append(milestone.label).append('=').append(sinceStart(milestone));
+        }
+        return builder.toString();
+    }
+}
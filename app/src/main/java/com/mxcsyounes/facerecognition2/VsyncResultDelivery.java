@@ -0,0 +1,60 @@
+package com.mxcsyounes.facerecognition2;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Passes stream results on to a subscriber on the main thread, at most once per display frame. Only
+ * the newest result waits for the next vsync; one replaced before it is dropped without ever being
+ * rendered, so UI work follows the display refresh rate rather than the detection rate. The pending
+ * result is retained until it was delivered or dropped.
+ */
+public final class VsyncResultDelivery implements FaceDetectionStream.Subscriber, Choreographer.FrameCallback {
+
+    private final Choreographer choreographer;
+    private final FaceDetectionStream.Subscriber target;
+    private final AtomicReference<FaceDetectionResult> pending = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Must be created on the main thread.
+     */
+    public VsyncResultDelivery(FaceDetectionStream.Subscriber target) {
+        choreographer = Choreographer.getInstance();
+        this.target = target;
+    }
+
+    @Override
+    public void onResult(FaceDetectionResult result) {
+        FaceDetectionResult replaced = pending.getAndSet(result.retain());
+        if (replaced != null) replaced.release();
+        if (scheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        scheduled.set(false);
+        FaceDetectionResult result = pending.getAndSet(null);
+        if (result != null) {
+            try {
+                target.onResult(result);
+            } finally {
+                result.release();
+            }
+        }
+    }
+
+    /**
+     * Drops a pending result. Main thread only.
+     */
+    public void cancel() {
+        choreographer.removeFrameCallback(this);
+        FaceDetectionResult dropped = pending.getAndSet(null);
+        if (dropped != null) dropped.release();
+        scheduled.set(false);
+    }
+}
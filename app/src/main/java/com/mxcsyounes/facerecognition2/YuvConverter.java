@@ -0,0 +1,50 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+public final class YuvConverter {
+
+    private YuvConverter() {
+    }
+
+    /**
+     * Wraps the Y plane of a YUV_420_888 frame as a single channel Mat without copying.
+     * The buffer must be direct and stay valid (image not closed) for as long as the Mat is used.
+     */
+    public static Mat wrapLuminance(ByteBuffer yBuffer, int rowStride, int width, int height) {
+        if (!yBuffer.isDirect()) {
+            throw new IllegalArgumentException("Y plane buffer must be direct");
+        }
+        if (rowStride < width) {
+            throw new IllegalArgumentException("row stride " + rowStride + " is smaller than width " + width);
+        }
+        return new Mat(height, width, CvType.CV_8UC1, yBuffer, rowStride);
+    }
+
+    /**
+     * Copies the Y plane into a tightly packed width * height direct buffer, dropping any row padding.
+     * Both buffers are direct, so every row is a single bulk copy that never passes through the heap.
+     */
+    public static void copyLuminance(ByteBuffer yBuffer, int rowStride, int width, int height, ByteBuffer dst) {
+        int limit = yBuffer.limit();
+        dst.clear();
+        if (rowStride == width) {
+            yBuffer.position(0);
+            yBuffer.limit(width * height);
+            dst.put(yBuffer);
+        } else {
+            for (int row = 0; row < height; row++) {
+                int start = row * rowStride;
+                yBuffer.limit(start + width);
+                yBuffer.position(start);
+                dst.put(yBuffer);
+            }
+        }
+        yBuffer.limit(limit);
+        yBuffer.rewind();
+        dst.clear();
+    }
+}
@@ -0,0 +1,57 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveQualityControllerTest {
+
+    private static final long FRAME_NANOS = 33_000_000L;
+    private static final long LATENCY_BUDGET = 100_000_000L;
+
+    private long now = 1;
+
+    @Test
+    public void stepsDownWhileOverBudget() {
+        AdaptiveQualityController controller = new AdaptiveQualityController(30f, LATENCY_BUDGET, 0);
+
+        run(controller, 60_000_000L, 80_000_000L, 5_000_000_000L);
+
+        assertEquals(AdaptiveQualityController.getLevelCount() - 1, controller.getLevel());
+    }
+
+    @Test
+    public void recoversOnlyAfterSustainedHeadroom() {
+        AdaptiveQualityController controller = new AdaptiveQualityController(30f, LATENCY_BUDGET, 3);
+
+        run(controller, 10_000_000L, 20_000_000L, 4_500_000_000L);
+        assertEquals(2, controller.getLevel());
+
+        // Between the recovery threshold and the budget: stable, no oscillation.
+        run(controller, 25_000_000L, 50_000_000L, 20_000_000_000L);
+        assertEquals(2, controller.getLevel());
+    }
+
+    @Test
+    public void thermalFloorLimitsQuality() {
+        AdaptiveQualityController controller = new AdaptiveQualityController(30f, LATENCY_BUDGET, 0);
+        controller.setThermalFloor(2);
+
+        assertTrue(controller.onFrameProcessed(1_000_000L, 2_000_000L, now));
+        assertEquals(2, controller.getLevel());
+        run(controller, 1_000_000L, 2_000_000L, 20_000_000_000L);
+        assertEquals(2, controller.getLevel());
+
+        controller.setThermalFloor(0);
+        run(controller, 1_000_000L, 2_000_000L, 20_000_000_000L);
+        assertEquals(0, controller.getLevel());
+    }
+
+    private void run(AdaptiveQualityController controller, long processingNanos, long latencyNanos, long durationNanos) {
+        long end = now + durationNanos;
+        for (; now < end; now += FRAME_NANOS) {
+            controller.onFrameProcessed(processingNanos, latencyNanos, now);
+        }
+    }
+}
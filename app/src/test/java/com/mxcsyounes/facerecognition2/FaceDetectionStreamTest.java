@@ -0,0 +1,98 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FaceDetectionStreamTest {
+
+    @Test
+    public void publish_dropsResultsOlderThanTheLastOne() {
+        FaceDetectionStream stream = new FaceDetectionStream();
+        List<Long> received = new ArrayList<>();
+        stream.subscribe(result -> received.add(result.timestamp));
+
+        assertTrue(stream.publish(result(20)));
+        assertFalse(stream.publish(result(10)));
+        assertTrue(stream.publish(result(20)));
+        assertTrue(stream.publish(result(30)));
+
+        assertEquals(3, received.size());
+        assertEquals(30L, (long) received.get(2));
+        assertEquals(30, stream.getLatest().timestamp);
+    }
+
+    @Test
+    public void reset_acceptsOlderTimestampsAgain() {
+        FaceDetectionStream stream = new FaceDetectionStream();
+        stream.publish(result(100));
+
+        stream.reset();
+
+        assertNull(stream.getLatest());
+        assertTrue(stream.publish(result(1)));
+    }
+
+    @Test
+    public void unsubscribe_stopsDelivery() {
+        FaceDetectionStream stream = new FaceDetectionStream();
+        List<FaceDetectionResult> received = new ArrayList<>();
+        FaceDetectionStream.Subscriber subscriber = received::add;
+        stream.subscribe(subscriber);
+        stream.subscribe(subscriber);
+
+        FaceDetectionResult first = result(1);
+        stream.publish(first);
+        stream.unsubscribe(subscriber);
+        stream.publish(result(2));
+
+        assertEquals(1, received.size());
+        assertSame(first, received.get(0));
+    }
+
+    @Test
+    public void result_keepsItsOwnCopyOfTheBoxes() {
+        FaceBoxes faces = new FaceBoxes();
+        faces.add(1, 2, 3, 4, 7);
+
+        FaceDetectionResult result = new FaceDetectionResult(1, 1, faces, 640, 480, 0, false);
+        faces.clear();
+
+        assertEquals(1, result.getFaces().size());
+        assertEquals(7, result.getFaces().id(0));
+    }
+
+    @Test
+    public void pooledResult_isRefilledOnlyOnceTheStreamLetsGo() {
+        FaceDetectionResult.Pool pool = new FaceDetectionResult.Pool(2);
+        FaceDetectionStream stream = new FaceDetectionStream();
+        FaceBoxes faces = new FaceBoxes();
+        faces.add(1, 2, 3, 4);
+
+        FaceDetectionResult first = pool.obtain(1, 1, faces, 640, 480, 0, false);
+        stream.publish(first);
+        first.release();
+        FaceDetectionResult second = pool.obtain(2, 2, new FaceBoxes(), 640, 480, 0, false);
+        stream.publish(second);
+        second.release();
+        FaceDetectionResult third = pool.obtain(3, 3, new FaceBoxes(), 640, 480, 0, false);
+
+        assertNotSame(first, second);
+        assertSame(first, third);
+        assertEquals(3, third.timestamp);
+        assertTrue(third.isEmpty());
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    private static FaceDetectionResult result(long timestamp) {
+        return new FaceDetectionResult(timestamp, timestamp, new FaceBoxes(), 640, 480, 0, false);
+    }
+}
@@ -0,0 +1,71 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FaceGalleryTest {
+
+    private static final int CROP_SIZE = 32;
+
+    private final LbpDescriptor descriptor = new LbpDescriptor(4, 4);
+
+    @Test
+    public void nearest_isEmptyWithoutEnrolledFaces() {
+        FaceGallery gallery = new FaceGallery(descriptor.getLength());
+
+        assertFalse(gallery.nearest(new float[descriptor.getLength()], new FaceGallery.Match()));
+    }
+
+    @Test
+    public void nearest_findsEnrolledCrop() {
+        FaceGallery gallery = new FaceGallery(descriptor.getLength(), 2);
+        float[][] descriptors = randomDescriptors(50, 3);
+        for (int i = 0; i < descriptors.length; i++) {
+            gallery.add(i % 5, descriptors[i], 0);
+        }
+        FaceGallery.Match match = new FaceGallery.Match();
+
+        assertTrue(gallery.nearest(descriptors[17], match));
+        assertEquals(17, match.index);
+        assertEquals(17 % 5, match.label);
+        assertEquals(0f, match.distance, 1e-6f);
+    }
+
+    @Test
+    public void nearest_withIndexFindsEnrolledCrops() {
+        FaceGallery gallery = new FaceGallery(descriptor.getLength(), 64, descriptor.invariantGroups());
+        float[][] descriptors = randomDescriptors(400, 5);
+        for (int i = 0; i < descriptors.length; i++) {
+            gallery.add(i, descriptors[i], 0);
+        }
+        gallery.buildIndex(20, 4, 200, 5, 1);
+        float[] late = randomDescriptors(1, 9)[0];
+        gallery.add(1000, late, 0);
+        FaceGallery.Match match = new FaceGallery.Match();
+
+        assertTrue(gallery.isIndexed());
+        assertEquals(400, gallery.getIndexedSize());
+        for (int i = 0; i < descriptors.length; i += 37) {
+            assertTrue(gallery.nearest(descriptors[i], match));
+            assertEquals(i, match.label);
+        }
+        assertTrue(gallery.nearest(late, match));
+        assertEquals(1000, match.label);
+    }
+
+    private float[][] randomDescriptors(int count, long seed) {
+        Random random = new Random(seed);
+        byte[] crop = new byte[CROP_SIZE * CROP_SIZE];
+        float[][] descriptors = new float[count][descriptor.getLength()];
+        for (float[] out : descriptors) {
+            random.nextBytes(crop);
+            descriptor.compute(crop, CROP_SIZE, CROP_SIZE, out, 0);
+        }
+        return descriptors;
+    }
+}
@@ -0,0 +1,125 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class FrameBufferPoolTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int ROW_STRIDE = 80;
+
+    @Test
+    public void acquire_reusesReleasedFrame() {
+        CountingFactory factory = new CountingFactory();
+        FrameBufferPool<TestFrame> pool = new FrameBufferPool<>(factory, 2);
+
+        TestFrame first = pool.acquire(WIDTH, HEIGHT);
+        pool.release(first);
+        TestFrame second = pool.acquire(WIDTH, HEIGHT);
+
+        assertSame(first, second);
+        assertEquals(1, factory.created);
+    }
+
+    @Test
+    public void acquire_disposesOldFramesWhenSizeChanges() {
+        CountingFactory factory = new CountingFactory();
+        FrameBufferPool<TestFrame> pool = new FrameBufferPool<>(factory, 2);
+
+        TestFrame idle = pool.acquire(WIDTH, HEIGHT);
+        TestFrame inFlight = pool.acquire(WIDTH, HEIGHT);
+        pool.release(idle);
+
+        TestFrame resized = pool.acquire(WIDTH * 2, HEIGHT * 2);
+        assertNotSame(idle, resized);
+        assertEquals(WIDTH * 2, resized.getWidth());
+        assertEquals(1, factory.disposed);
+
+        pool.release(inFlight);
+        assertEquals(2, factory.disposed);
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void copyLuminance_dropsRowPadding() {
+        ByteBuffer plane = paddedPlane();
+        int limit = plane.limit();
+        ByteBuffer luminance = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+
+        YuvConverter.copyLuminance(plane, ROW_STRIDE, WIDTH, HEIGHT, luminance);
+
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                assertEquals((byte) (row + col), luminance.get(row * WIDTH + col));
+            }
+        }
+        assertEquals(0, plane.position());
+        assertEquals(limit, plane.limit());
+        assertEquals(0, luminance.position());
+    }
+
+    @Test
+    public void copyLuminance_copiesUnpaddedPlaneAtOnce() {
+        ByteBuffer plane = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int i = 0; i < plane.capacity(); i++) {
+            plane.put(i, (byte) i);
+        }
+        ByteBuffer luminance = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+
+        YuvConverter.copyLuminance(plane, WIDTH, WIDTH, HEIGHT, luminance);
+
+        assertEquals(0, luminance.compareTo(plane));
+    }
+
+    private static ByteBuffer paddedPlane() {
+        ByteBuffer plane = ByteBuffer.allocateDirect(ROW_STRIDE * (HEIGHT - 1) + WIDTH);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < ROW_STRIDE && row * ROW_STRIDE + col < plane.capacity(); col++) {
+                plane.put(row * ROW_STRIDE + col, col < WIDTH ? (byte) (row + col) : (byte) 0xFF);
+            }
+        }
+        return plane;
+    }
+
+    private static final class TestFrame implements FrameBufferPool.Frame {
+        final int width;
+        final int height;
+
+        TestFrame(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+    }
+
+    private static final class CountingFactory implements FrameBufferPool.Factory<TestFrame> {
+        int created;
+        int disposed;
+
+        @Override
+        public TestFrame create(int width, int height) {
+            created++;
+            return new TestFrame(width, height);
+        }
+
+        @Override
+        public void dispose(TestFrame frame) {
+            disposed++;
+        }
+    }
+}
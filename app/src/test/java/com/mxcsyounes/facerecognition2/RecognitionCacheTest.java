@@ -0,0 +1,75 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RecognitionCacheTest {
+
+    private static final int LENGTH = 8;
+    private static final long MS = 1_000_000L;
+    private static final float[] DESCRIPTOR = new float[LENGTH];
+
+    @Test
+    public void lookup_missesNewTrackAndHitsAfterPut() {
+        RecognitionCache cache = cache(1 << 20);
+
+        assertEquals(RecognitionCache.MISS, cache.lookup(1, 100, 100, 0, 5, 0));
+        cache.put(7, 1f, DESCRIPTOR, 100, 100, 0, 5, 0);
+
+        assertEquals(RecognitionCache.HIT, cache.lookup(1, 110, 105, 0, 5, 100 * MS));
+        assertEquals(7, cache.getLabel());
+    }
+
+    @Test
+    public void lookup_missesWhenScaleRotationOrGalleryChange() {
+        RecognitionCache cache = cache(1 << 20);
+        cache.lookup(1, 100, 100, 0, 5, 0);
+        cache.put(7, 1f, DESCRIPTOR, 100, 100, 0, 5, 0);
+
+        assertEquals(RecognitionCache.MISS, cache.lookup(1, 200, 200, 0, 5, MS));
+        assertEquals(RecognitionCache.MISS, cache.lookup(1, 60, 60, 0, 5, MS));
+        assertEquals(RecognitionCache.MISS, cache.lookup(1, 100, 100, 90, 5, MS));
+        assertEquals(RecognitionCache.MISS, cache.lookup(1, 100, 100, 0, 6, MS));
+    }
+
+    @Test
+    public void lookup_trustDecaysFasterForWeakMatches() {
+        RecognitionCache cache = cache(1 << 20);
+        cache.lookup(1, 100, 100, 0, 5, 0);
+        cache.put(7, 1f, DESCRIPTOR, 100, 100, 0, 5, 0);
+        cache.lookup(2, 100, 100, 0, 5, 0);
+        cache.put(8, 0f, DESCRIPTOR, 100, 100, 0, 5, 0);
+        cache.lookup(3, 100, 100, 0, 5, 0);
+        cache.put(FaceBoxes.NO_LABEL, 0f, DESCRIPTOR, 100, 100, 0, 5, 0);
+
+        assertEquals(RecognitionCache.HIT, cache.lookup(1, 100, 100, 0, 5, 600 * MS));
+        assertEquals(RecognitionCache.STALE, cache.lookup(2, 100, 100, 0, 5, 600 * MS));
+        assertEquals(RecognitionCache.MISS, cache.lookup(3, 100, 100, 0, 5, 600 * MS));
+
+        cache.lookup(2, 100, 100, 0, 5, 600 * MS);
+        cache.confirm(600 * MS);
+        assertEquals(RecognitionCache.HIT, cache.lookup(2, 100, 100, 0, 5, 700 * MS));
+    }
+
+    @Test
+    public void entries_expireAndAreCappedByMemory() {
+        RecognitionCache cache = cache(2 * (LENGTH * 4 + 96));
+        assertEquals(2, cache.getCapacity());
+        for (int track = 1; track <= 3; track++) {
+            cache.lookup(track, 100, 100, 0, 5, track * MS);
+            cache.put(track, 1f, DESCRIPTOR, 100, 100, 0, 5, track * MS);
+        }
+
+        assertEquals(2, cache.size());
+        assertEquals(RecognitionCache.MISS, cache.lookup(1, 100, 100, 0, 5, 4 * MS));
+        assertEquals(RecognitionCache.HIT, cache.lookup(3, 100, 100, 0, 5, 4 * MS));
+
+        cache.lookup(4, 100, 100, 0, 5, 3000 * MS);
+        assertEquals(0, cache.size());
+    }
+
+    private static RecognitionCache cache(long maxBytes) {
+        return new RecognitionCache(LENGTH, maxBytes, 2000 * MS, 500 * MS, 5000 * MS, 1.5f);
+    }
+}
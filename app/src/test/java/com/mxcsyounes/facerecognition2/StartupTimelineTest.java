@@ -0,0 +1,44 @@
+package com.mxcsyounes.facerecognition2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StartupTimelineTest {
+
+    @Test
+    public void mark_keepsTheFirstTime() {
+        StartupTimeline timeline = new StartupTimeline();
+        timeline.mark(StartupTimeline.Milestone.PROCESS_START, 1000);
+
+        assertTrue(timeline.mark(StartupTimeline.Milestone.FIRST_DETECTION, 1800));
+        assertFalse(timeline.mark(StartupTimeline.Milestone.FIRST_DETECTION, 2500));
+
+        assertEquals(800, timeline.sinceStart(StartupTimeline.Milestone.FIRST_DETECTION));
+    }
+
+    @Test
+    public void sinceStart_fallsBackToActivityCreation() {
+        StartupTimeline timeline = new StartupTimeline();
+        timeline.mark(StartupTimeline.Milestone.ACTIVITY_CREATED, 5000);
+        timeline.mark(StartupTimeline.Milestone.PREVIEW_BOUND, 5300);
+
+        assertEquals(-1, timeline.sinceStart(StartupTimeline.Milestone.PROCESS_START));
+        assertEquals(300, timeline.sinceStart(StartupTimeline.Milestone.PREVIEW_BOUND));
+        assertEquals(-1, timeline.sinceStart(StartupTimeline.Milestone.FIRST_ANALYZED_FRAME));
+    }
+
+    @Test
+    public void toString_listsEveryMilestone() {
+        StartupTimeline timeline = new StartupTimeline();
+        timeline.mark(StartupTimeline.Milestone.PROCESS_START, 100);
+        timeline.mark(StartupTimeline.Milestone.ACTIVITY_CREATED, 350);
+
+        String text = timeline.toString();
+
+        assertTrue(text.startsWith("process_start=0 activity_created=250 preview_bound=-1"));
+        assertTrue(text.endsWith("first_detection=-1"));
+    }
+}
@@ -0,0 +1,130 @@
+package com.mxcsyounes.facerecognition2.benchmark;
+
+import com.mxcsyounes.facerecognition2.AnalysisFrame;
+import com.mxcsyounes.facerecognition2.FrameBufferPool;
+import com.mxcsyounes.facerecognition2.PipelineMetrics;
+import com.mxcsyounes.facerecognition2.YuvConverter;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame conversion cost: the old NV21 to JPEG to RGBA path against the Y plane paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConversionBenchmark {
+
+    private static final int JPEG_QUALITY = 75;
+
+    private List<RecordedFrames> frames;
+    private ByteBuffer[] yPlanes;
+    private FrameBufferPool<AnalysisFrame> framePool;
+    private MatOfInt jpegParams;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        nu.pattern.OpenCV.loadLocally();
+        frames = RecordedFrames.load();
+        yPlanes = new ByteBuffer[frames.size()];
+        for (int i = 0; i < yPlanes.length; i++) {
+            RecordedFrames frame = frames.get(i);
+            yPlanes[i] = ByteBuffer.allocateDirect(frame.lumaSize());
+            yPlanes[i].put(frame.nv21, 0, frame.lumaSize()).rewind();
+        }
+        framePool = new FrameBufferPool<>(AnalysisFrame.factory(new PipelineMetrics()), 2);
+        jpegParams = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, JPEG_QUALITY);
+    }
+
+    @TearDown
+    public void tearDown() {
+        framePool.clear();
+        jpegParams.release();
+    }
+
+    /**
+     * Equivalent of MainActivity.toBitmap followed by Utils.bitmapToMat: copy into a fresh NV21 array,
+     * JPEG encode at quality 75, decode and convert to RGBA.
+     */
+    @Benchmark
+    public void jpegRoundTrip(Blackhole blackhole) {
+        RecordedFrames frame = nextFrame();
+        byte[] nv21 = frame.nv21.clone();
+        Mat yuv = new Mat(frame.height + frame.height / 2, frame.width, CvType.CV_8UC1);
+        yuv.put(0, 0, nv21);
+        Mat bgr = new Mat();
+        Imgproc.cvtColor(yuv, bgr, Imgproc.COLOR_YUV2BGR_NV21);
+        MatOfByte jpeg = new MatOfByte();
+        Imgcodecs.imencode(".jpg", bgr, jpeg, jpegParams);
+        Mat decoded = Imgcodecs.imdecode(jpeg, Imgcodecs.IMREAD_COLOR);
+        Mat rgba = new Mat();
+        Imgproc.cvtColor(decoded, rgba, Imgproc.COLOR_BGR2RGBA);
+        blackhole.consume(rgba.rows());
+        yuv.release();
+        bgr.release();
+        jpeg.release();
+        decoded.release();
+        rgba.release();
+    }
+
+    /**
+     * The analyzer path: copy the Y plane into a pooled frame, whose gray Mat wraps the copy.
+     */
+    @Benchmark
+    public void pooledGrayCopy(Blackhole blackhole) {
+        int index = nextIndex();
+        RecordedFrames source = frames.get(index);
+        AnalysisFrame frame = framePool.acquire(source.width, source.height);
+        frame.fill(yPlanes[index], source.width, index, 0);
+        blackhole.consume(frame.gray.rows());
+        framePool.release(frame);
+    }
+
+    /**
+     * Zero-copy wrapping of the Y plane as a Mat header.
+     */
+    @Benchmark
+    public void grayWrap(Blackhole blackhole) {
+        int index = nextIndex();
+        RecordedFrames source = frames.get(index);
+        Mat gray = YuvConverter.wrapLuminance(yPlanes[index], source.width, source.width, source.height);
+        blackhole.consume(gray.rows());
+        gray.release();
+    }
+
+    private RecordedFrames nextFrame() {
+        return frames.get(nextIndex());
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (next + 1) % frames.size();
+        return index;
+    }
+}
@@ -0,0 +1,90 @@
+package com.mxcsyounes.facerecognition2.benchmark;
+
+import com.mxcsyounes.facerecognition2.FaceBoxes;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * detectMultiScale on recorded Y planes across scaleFactor and minSize settings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class DetectionBenchmark {
+
+    private static final int MIN_NEIGHBORS = 3;
+
+    @Param({"1.1", "1.2", "1.3"})
+    public double scaleFactor;
+
+    @Param({"0", "48", "96"})
+    public int minSize;
+
+    private CascadeClassifier classifier;
+    private Mat[] grayFrames;
+    private MatOfRect detections;
+    private final FaceBoxes faces = new FaceBoxes();
+    private Size minimum;
+    private Size maximum;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        nu.pattern.OpenCV.loadLocally();
+        String cascadePath = System.getProperty("cascade.path");
+        classifier = new CascadeClassifier(cascadePath);
+        if (classifier.empty()) {
+            throw new IllegalStateException("Could not load cascade from " + cascadePath);
+        }
+        List<RecordedFrames> frames = RecordedFrames.load();
+        grayFrames = new Mat[frames.size()];
+        for (int i = 0; i < grayFrames.length; i++) {
+            RecordedFrames frame = frames.get(i);
+            grayFrames[i] = new Mat(frame.height, frame.width, CvType.CV_8UC1);
+            grayFrames[i].put(0, 0, frame.nv21, 0, frame.lumaSize());
+        }
+        detections = new MatOfRect();
+        minimum = new Size(minSize, minSize);
+        maximum = new Size();
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Mat gray : grayFrames) {
+            gray.release();
+        }
+        detections.release();
+    }
+
+    @Benchmark
+    public int detectMultiScale() {
+        Mat gray = grayFrames[next];
+        next = (next + 1) % grayFrames.length;
+        classifier.detectMultiScale(gray, detections, scaleFactor, MIN_NEIGHBORS, 0, minimum, maximum);
+        faces.copyFrom(detections);
+        return faces.size();
+    }
+}
@@ -0,0 +1,114 @@
+package com.mxcsyounes.facerecognition2.benchmark;
+
+import com.mxcsyounes.facerecognition2.CascadeFaceDetector;
+import com.mxcsyounes.facerecognition2.DnnFaceDetector;
+import com.mxcsyounes.facerecognition2.FaceBoxes;
+import com.mxcsyounes.facerecognition2.FaceDetector;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Model load time and per-frame detection latency of every {@link FaceDetector} backend on recorded
+ * Y planes. Haar uses {@code cascade.path}; the LBP cascade and the DNN model are read from the
+ * {@code models.dir} directory, and a backend whose model is missing fails with a message instead
+ * of a result.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class DetectorBackendBenchmark {
+
+    private static final double SCALE_FACTOR = 1.1;
+    private static final float DNN_CONFIDENCE = 0.5f;
+
+    @Param({"haar", "lbp", "dnn"})
+    public String backend;
+
+    private FaceDetector detector;
+    private Mat[] grayFrames;
+    private final FaceBoxes faces = new FaceBoxes();
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        nu.pattern.OpenCV.loadLocally();
+        detector = open(backend);
+        detector.setParameters(SCALE_FACTOR, 0, 0);
+        List<RecordedFrames> frames = RecordedFrames.load();
+        grayFrames = new Mat[frames.size()];
+        for (int i = 0; i < grayFrames.length; i++) {
+            RecordedFrames frame = frames.get(i);
+            grayFrames[i] = new Mat(frame.height, frame.width, CvType.CV_8UC1);
+            grayFrames[i].put(0, 0, frame.nv21, 0, frame.lumaSize());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Mat gray : grayFrames) {
+            gray.release();
+        }
+        detector.release();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 10)
+    public long load() throws IOException {
+        FaceDetector loaded = open(backend);
+        loaded.release();
+        return loaded.getInitNanos();
+    }
+
+    @Benchmark
+    public int detect() {
+        Mat gray = grayFrames[next];
+        next = (next + 1) % grayFrames.length;
+        detector.detect(gray, faces);
+        return faces.size();
+    }
+
+    private static FaceDetector open(String backend) throws IOException {
+        File models = new File(System.getProperty("models.dir", "models"));
+        switch (backend) {
+            case "haar":
+                return new CascadeFaceDetector(backend, System.getProperty("cascade.path"));
+            case "lbp":
+                return new CascadeFaceDetector(backend, existing(new File(models, CascadeFaceDetector.LBP_MODEL)));
+            case "dnn":
+                return new DnnFaceDetector(existing(new File(models, DnnFaceDetector.MODEL)),
+                        existing(new File(models, DnnFaceDetector.CONFIG)), DNN_CONFIDENCE);
+            default:
+                throw new IllegalArgumentException("unknown backend " + backend);
+        }
+    }
+
+    private static String existing(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException(file.getAbsolutePath() + " not found, download it from the OpenCV repository");
+        }
+        return file.getAbsolutePath();
+    }
+}
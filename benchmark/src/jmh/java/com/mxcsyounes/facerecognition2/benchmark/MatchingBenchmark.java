@@ -0,0 +1,93 @@
+package com.mxcsyounes.facerecognition2.benchmark;
+
+import com.mxcsyounes.facerecognition2.FaceGallery;
+import com.mxcsyounes.facerecognition2.LbpDescriptor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recognizing one face: describing the crop and finding the nearest enrolled descriptor,
+ * by exact scan and through the coarse index, as the gallery grows, and of building that index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchingBenchmark {
+
+    private static final int CROP_SIZE = 64;
+    private static final int GRID = 4;
+
+    @Param({"100", "1000", "10000"})
+    public int gallerySize;
+
+    private final LbpDescriptor descriptor = new LbpDescriptor(GRID, GRID);
+    private final FaceGallery.Match match = new FaceGallery.Match();
+    private final byte[] crop = new byte[CROP_SIZE * CROP_SIZE];
+    private float[] query;
+    private FaceGallery exact;
+    private FaceGallery indexed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(11);
+        query = new float[descriptor.getLength()];
+        exact = new FaceGallery(descriptor.getLength(), gallerySize);
+        indexed = new FaceGallery(descriptor.getLength(), gallerySize, descriptor.invariantGroups());
+        for (int i = 0; i < gallerySize; i++) {
+            random.nextBytes(crop);
+            descriptor.compute(crop, CROP_SIZE, CROP_SIZE, query, 0);
+            exact.add(i, query, 0);
+            indexed.add(i, query, 0);
+        }
+        buildIndex();
+        random.nextBytes(crop);
+        descriptor.compute(crop, CROP_SIZE, CROP_SIZE, query, 0);
+    }
+
+    @Benchmark
+    public float[] describe() {
+        descriptor.compute(crop, CROP_SIZE, CROP_SIZE, query, 0);
+        return query;
+    }
+
+    @Benchmark
+    public int exactScan() {
+        exact.nearest(query, match);
+        return match.index;
+    }
+
+    @Benchmark
+    public int indexedSearch() {
+        indexed.nearest(query, match);
+        return match.index;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public int buildIndex() {
+        // Same sizing as FaceRecognizer.optimize().
+        int cells = (int) Math.sqrt(gallerySize * 8.0);
+        indexed.buildIndex(cells, 8, 4096, 4, 1);
+        return indexed.getIndexedSize();
+    }
+}
@@ -0,0 +1,76 @@
+package com.mxcsyounes.facerecognition2.benchmark;
+
+import com.mxcsyounes.facerecognition2.MotionGate;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the motion gate per frame, to compare with a detection it saves. Frames cycle through the
+ * recorded set with timestamps far apart, so every call does the full thumbnail and difference work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MotionGateBenchmark {
+
+    private static final double PIXEL_THRESHOLD = 12;
+    private static final float CHANGED_FRACTION = 0.01f;
+    private static final long MAX_AGE_NANOS = Long.MAX_VALUE;
+
+    @Param({"16", "32", "64"})
+    public int thumbnailWidth;
+
+    private MotionGate gate;
+    private Mat[] grayFrames;
+    private long timestamp;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        nu.pattern.OpenCV.loadLocally();
+        gate = new MotionGate(thumbnailWidth, PIXEL_THRESHOLD, CHANGED_FRACTION, MAX_AGE_NANOS);
+        List<RecordedFrames> frames = RecordedFrames.load();
+        grayFrames = new Mat[frames.size()];
+        for (int i = 0; i < grayFrames.length; i++) {
+            RecordedFrames frame = frames.get(i);
+            grayFrames[i] = new Mat(frame.height, frame.width, CvType.CV_8UC1);
+            grayFrames[i].put(0, 0, frame.nv21, 0, frame.lumaSize());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Mat gray : grayFrames) {
+            gray.release();
+        }
+        gate.release();
+    }
+
+    @Benchmark
+    public boolean isUnchanged() {
+        Mat gray = grayFrames[next];
+        next = (next + 1) % grayFrames.length;
+        timestamp += 33_000_000L;
+        return gate.isUnchanged(gray, 0, timestamp);
+    }
+}
@@ -0,0 +1,128 @@
+package com.mxcsyounes.facerecognition2.benchmark;
+
+import com.mxcsyounes.facerecognition2.FrameRecording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Raw analysis frames loaded from the directory in the {@code frames.dir} system property.
+ * Files are named {@code <name>_<width>x<height>.nv21} or {@code .y} for Y plane only recordings.
+ * Recordings made on device with the {@code record} extra ({@code .frames}) are read as well, up to
+ * {@value #MAX_RECORDED_FRAMES} frames each.
+ */
+final class RecordedFrames {
+
+    private static final Pattern NAME = Pattern.compile(".*_(\\d+)x(\\d+)\\.(nv21|y)");
+    private static final int SYNTHETIC_WIDTH = 640;
+    private static final int SYNTHETIC_HEIGHT = 480;
+    private static final int MAX_RECORDED_FRAMES = 30;
+
+    final String name;
+    final int width;
+    final int height;
+    final byte[] nv21;
+
+    private RecordedFrames(String name, int width, int height, byte[] nv21) {
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.nv21 = nv21;
+    }
+
+    static List<RecordedFrames> load() throws IOException {
+        List<RecordedFrames> frames = new ArrayList<>();
+        File dir = new File(System.getProperty("frames.dir", "frames"));
+        File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.getName().endsWith(".frames")) {
+                    readRecording(file, frames);
+                    continue;
+                }
+                Matcher matcher = NAME.matcher(file.getName());
+                if (!matcher.matches()) continue;
+                int width = Integer.parseInt(matcher.group(1));
+                int height = Integer.parseInt(matcher.group(2));
+                frames.add(new RecordedFrames(file.getName(), width, height, readFrame(file, width, height)));
+            }
+        }
+        if (frames.isEmpty()) {
+            System.err.println("No recorded frames in " + dir.getAbsolutePath() + ", using a synthetic frame."
+                    + " Detection numbers are only meaningful with real recordings.");
+            frames.add(synthetic());
+        }
+        return frames;
+    }
+
+    int lumaSize() {
+        return width * height;
+    }
+
+    private static byte[] readFrame(File file, int width, int height) throws IOException {
+        int lumaSize = width * height;
+        byte[] nv21 = new byte[lumaSize + lumaSize / 2];
+        // Y only recordings get neutral chroma so every benchmark can run on them.
+        Arrays.fill(nv21, lumaSize, nv21.length, (byte) 128);
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            int length = (int) Math.min(in.length(), nv21.length);
+            if (length < lumaSize) {
+                throw new IOException(file + " is smaller than a " + width + "x" + height + " Y plane");
+            }
+            in.readFully(nv21, 0, length);
+        }
+        return nv21;
+    }
+
+    private static void readRecording(File file, List<RecordedFrames> frames) throws IOException {
+        try (FrameRecording recording = FrameRecording.open(file)) {
+            FrameRecording.Frame frame = new FrameRecording.Frame();
+            int count = Math.min(recording.getFrameCount(), MAX_RECORDED_FRAMES);
+            for (int i = 0; i < count; i++) {
+                recording.read(i, frame);
+                frames.add(new RecordedFrames(file.getName() + "#" + i, frame.width, frame.height, toNv21(frame)));
+            }
+        }
+    }
+
+    /**
+     * Packs the strided planes of a recorded YUV_420_888 frame into NV21.
+     */
+    private static byte[] toNv21(FrameRecording.Frame frame) {
+        int width = frame.width;
+        int height = frame.height;
+        byte[] nv21 = new byte[width * height + width * height / 2];
+        ByteBuffer y = frame.planes[0];
+        for (int row = 0; row < height; row++) {
+            y.position(row * frame.rowStrides[0]);
+            y.get(nv21, row * width, width);
+        }
+        ByteBuffer u = frame.planes[1];
+        ByteBuffer v = frame.planes[2];
+        int offset = width * height;
+        for (int row = 0; row < height / 2; row++) {
+            for (int col = 0; col < width / 2; col++) {
+                nv21[offset++] = v.get(row * frame.rowStrides[2] + col * frame.pixelStrides[2]);
+                nv21[offset++] = u.get(row * frame.rowStrides[1] + col * frame.pixelStrides[1]);
+            }
+        }
+        return nv21;
+    }
+
+    private static RecordedFrames synthetic() {
+        int lumaSize = SYNTHETIC_WIDTH * SYNTHETIC_HEIGHT;
+        byte[] nv21 = new byte[lumaSize + lumaSize / 2];
+        new Random(42).nextBytes(nv21);
+        Arrays.fill(nv21, lumaSize, nv21.length, (byte) 128);
+        return new RecordedFrames("synthetic", SYNTHETIC_WIDTH, SYNTHETIC_HEIGHT, nv21);
+    }
+}
@@ -0,0 +1,80 @@
+package com.mxcsyounes.facerecognition2.benchmark;
+
+import com.mxcsyounes.facerecognition2.FaceBoxes;
+import com.mxcsyounes.facerecognition2.OverlayGeometry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping detections into overlay coordinates, as GraphicOverlay.Graphic.calculateRect does per draw.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RectMappingBenchmark {
+
+    private static final float VIEW_WIDTH = 1080;
+    private static final float VIEW_HEIGHT = 2280;
+    private static final float IMAGE_WIDTH = 480;
+    private static final float IMAGE_HEIGHT = 640;
+
+    @Param({"1", "10"})
+    public int faceCount;
+
+    private final FaceBoxes faces = new FaceBoxes();
+    private final OverlayGeometry geometry = new OverlayGeometry();
+    private final float[] mapped = new float[4];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        for (int i = 0; i < faceCount; i++) {
+            faces.add(random.nextInt(400), random.nextInt(560), 40 + random.nextInt(40), 40 + random.nextInt(40));
+        }
+    }
+
+    /**
+     * Same work as calculateRect: geometry recomputed and a new result allocated for every box.
+     */
+    @Benchmark
+    public void calculateRectPerBox(Blackhole blackhole) {
+        for (int i = 0; i < faces.size(); i++) {
+            OverlayGeometry perDraw = new OverlayGeometry();
+            perDraw.update(VIEW_WIDTH, VIEW_HEIGHT, IMAGE_WIDTH, IMAGE_HEIGHT);
+            float[] out = new float[4];
+            perDraw.map(faces.x(i), faces.y(i), faces.x(i) + faces.width(i), faces.y(i) + faces.height(i),
+                    false, VIEW_WIDTH, out);
+            blackhole.consume(out);
+        }
+    }
+
+    /**
+     * Geometry computed once per frame and results written into a reused array.
+     */
+    @Benchmark
+    public void sharedGeometry(Blackhole blackhole) {
+        geometry.update(VIEW_WIDTH, VIEW_HEIGHT, IMAGE_WIDTH, IMAGE_HEIGHT);
+        for (int i = 0; i < faces.size(); i++) {
+            geometry.map(faces.x(i), faces.y(i), faces.x(i) + faces.width(i), faces.y(i) + faces.height(i),
+                    false, VIEW_WIDTH, mapped);
+            blackhole.consume(mapped[0]);
+        }
+    }
+}
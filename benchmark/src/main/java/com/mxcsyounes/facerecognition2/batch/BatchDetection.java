@@ -0,0 +1,392 @@
+package com.mxcsyounes.facerecognition2.batch;
+
+import com.mxcsyounes.facerecognition2.AdaptiveQualityController;
+import com.mxcsyounes.facerecognition2.CascadeFaceDetector;
+import com.mxcsyounes.facerecognition2.DnnFaceDetector;
+import com.mxcsyounes.facerecognition2.FaceBoxes;
+import com.mxcsyounes.facerecognition2.FaceDetector;
+import com.mxcsyounes.facerecognition2.PipelineMetrics;
+import com.mxcsyounes.facerecognition2.PreprocessPipeline;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Detects faces in every image under a directory, without a camera, and appends one JSON object per
+ * image to a JSON Lines file as soon as that image is done:
+ * {@code {"index":0,"file":"a/b.jpg","width":1000,"height":750,"reduction":4,"decode_ms":3.1,"detect_ms":20.4,"faces":[[x,y,w,h]]}}.
+ * Width and height are those of the decoded image; boxes are in pixels of the original image as
+ * stored, before any EXIF orientation: images are decoded with the orientation ignored, so boxes line
+ * up with the pixel grid other tools read from the file. An image that cannot be read gets an
+ * {@code "error"} instead of faces. Lines come out in completion order, {@code index} is the position
+ * in the sorted directory walk. Decoding is timed as {@code decode}, detection with its preprocessing
+ * as {@code detection}.
+ * <p>
+ * Images are decoded straight to gray with the largest power-of-two reduction that keeps the shorter
+ * side at or above the target, as {@code CaptureDecoder} does for captures, and then go through the
+ * same {@link PreprocessPipeline} stages and {@link FaceDetector} backends as the app, with the
+ * parameters of the chosen quality level. Work runs on a work-stealing {@link ForkJoinPool} whose
+ * threads each own a detector, since detectors are not thread safe. Only a few images per thread
+ * are in flight at once, so memory stays flat however large the directory is.
+ * <p>
+ * Run with {@code ./gradlew :benchmark:batch -PimagesDir=... [-PbatchOutput=...] [-PbatchArgs="..."]},
+ * or directly with the options printed when run without arguments.
+ */
+public final class BatchDetection {
+
+    private static final int DEFAULT_TARGET_SIZE = 480;
+    private static final int MAX_REDUCTION = 8;
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+    private static final float DNN_CONFIDENCE = 0.5f;
+    private static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".bmp", ".webp", ".tif", ".tiff"};
+
+    private final String backend;
+    private final File cascadeFile;
+    private final File modelsDir;
+    private final int targetSize;
+    private final AdaptiveQualityController.Level level;
+    private final boolean equalize;
+    private final boolean adaptiveEqualization;
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final AtomicLong images = new AtomicLong();
+    private final AtomicLong faceCount = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong detectorInitNanos = new AtomicLong();
+    private Writer output;
+    private Semaphore inFlight;
+    private volatile IOException writeFailure;
+
+    private BatchDetection(String backend, File cascadeFile, File modelsDir, int targetSize, int level,
+                           boolean equalize, boolean adaptiveEqualization) {
+        this.backend = backend;
+        this.cascadeFile = cascadeFile;
+        this.modelsDir = modelsDir;
+        this.targetSize = targetSize;
+        this.level = AdaptiveQualityController.levelAt(level);
+        this.equalize = equalize;
+        this.adaptiveEqualization = adaptiveEqualization;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String backend = "haar";
+        File cascade = new File(System.getProperty("cascade.path", CascadeFaceDetector.HAAR_MODEL));
+        File models = new File(System.getProperty("models.dir", "models"));
+        int threads = Runtime.getRuntime().availableProcessors();
+        int target = DEFAULT_TARGET_SIZE;
+        int level = 0;
+        boolean equalize = false;
+        boolean clahe = false;
+        File imagesDir = null;
+        File outputFile = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--detector")) {
+                backend = args[++i];
+            } else if (arg.equals("--cascade")) {
+                cascade = new File(args[++i]);
+            } else if (arg.equals("--models")) {
+                models = new File(args[++i]);
+            } else if (arg.equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--target")) {
+                target = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--level")) {
+                level = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--equalize")) {
+                equalize = true;
+            } else if (arg.equals("--clahe")) {
+                equalize = true;
+                clahe = true;
+            } else if (arg.startsWith("--")) {
+                usage();
+                return;
+            } else if (imagesDir == null) {
+                imagesDir = new File(arg);
+            } else if (outputFile == null) {
+                outputFile = new File(arg);
+            }
+        }
+        if (imagesDir == null || !imagesDir.isDirectory() || threads < 1 || target < 1
+                || level < 0 || level >= AdaptiveQualityController.getLevelCount()) {
+            usage();
+            return;
+        }
+        if (outputFile == null) outputFile = new File("detections.jsonl");
+
+        nu.pattern.OpenCV.loadLocally();
+        BatchDetection batch = new BatchDetection(backend, cascade, models, target, level, equalize, clahe);
+        // Fails here rather than once per image when a model is missing.
+        batch.openDetector().release();
+        batch.run(imagesDir, outputFile, threads);
+    }
+
+    private static void usage() {
+        System.err.println("usage: BatchDetection [--detector haar|lbp|dnn] [--cascade file] [--models dir]"
+                + " [--threads n] [--target px] [--level 0-" + (AdaptiveQualityController.getLevelCount() - 1) + "]"
+                + " [--equalize | --clahe] <image dir> [output.jsonl]");
+    }
+
+    private void run(File imagesDir, File outputFile, int threads) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8));
+        inFlight = new Semaphore(threads * IN_FLIGHT_PER_THREAD);
+        ForkJoinPool pool = new ForkJoinPool(threads, Worker::new, null, false);
+        try {
+            submitAll(imagesDir, pool);
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            output.close();
+        }
+        if (writeFailure != null) throw writeFailure;
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        metrics.setDetector(backend, detectorInitNanos.get() / Math.max(1, threads));
+        metrics.setFrameSource(new PipelineMetrics.FrameSource() {
+            @Override
+            public long getProcessedFrames() {
+                return images.get() - errors.get();
+            }
+
+            @Override
+            public long getDroppedFrames() {
+                return errors.get();
+            }
+        });
+        Writer summary = new OutputStreamWriter(System.err, StandardCharsets.UTF_8);
+        summary.write(String.format(Locale.US, "%d images, %d faces, %d errors in %.1f s (%.1f images/s) on %d threads -> %s\n",
+                images.get(), faceCount.get(), errors.get(), seconds, images.get() / seconds, threads, outputFile));
+        metrics.writeCsv(summary);
+        summary.flush();
+    }
+
+    /**
+     * Walks the directory tree in sorted order, one directory listing at a time, and hands every image
+     * to the pool, waiting whenever the in-flight limit is reached.
+     */
+    private void submitAll(File root, ForkJoinPool pool) throws InterruptedException {
+        String rootPath = root.getPath();
+        ArrayDeque<File> directories = new ArrayDeque<>();
+        directories.push(root);
+        long index = 0;
+        while (!directories.isEmpty() && writeFailure == null) {
+            File dir = directories.pop();
+            String[] names = dir.list();
+            if (names == null) continue;
+            Arrays.sort(names);
+            // Pushed in reverse so subdirectories are walked in sorted order too.
+            for (int i = names.length - 1; i >= 0; i--) {
+                File file = new File(dir, names[i]);
+                if (file.isDirectory()) directories.push(file);
+            }
+            for (String name : names) {
+                if (!isImage(name)) continue;
+                File file = new File(dir, name);
+                String relative = file.getPath().substring(rootPath.length() + 1);
+                long imageIndex = index++;
+                inFlight.acquire();
+                pool.execute(() -> {
+                    try {
+                        ((Worker) Thread.currentThread()).process(file, relative, imageIndex);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+    }
+
+    private FaceDetector openDetector() throws IOException {
+        switch (backend) {
+            case "haar":
+                return new CascadeFaceDetector(backend, existing(cascadeFile));
+            case "lbp":
+                return new CascadeFaceDetector(backend, existing(new File(modelsDir, CascadeFaceDetector.LBP_MODEL)));
+            case "dnn":
+                return new DnnFaceDetector(existing(new File(modelsDir, DnnFaceDetector.MODEL)),
+                        existing(new File(modelsDir, DnnFaceDetector.CONFIG)), DNN_CONFIDENCE);
+            default:
+                throw new IllegalArgumentException("unknown detector " + backend);
+        }
+    }
+
+    private static String existing(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException(file.getAbsolutePath() + " not found");
+        }
+        return file.getAbsolutePath();
+    }
+
+    private void write(CharSequence line) {
+        synchronized (this) {
+            try {
+                output.append(line);
+            } catch (IOException e) {
+                writeFailure = e;
+            }
+        }
+    }
+
+    private static boolean isImage(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (lower.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Power-of-two reduction for the image, read from its header without decoding any pixels. Images
+     * whose format has no header reader are decoded at full size.
+     */
+    static int reductionFor(File file, int targetSize) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            if (stream == null) return 1;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) return 1;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return reductionFor(reader.getWidth(0), reader.getHeight(0), targetSize);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static int reductionFor(int width, int height, int targetSize) {
+        int reduction = 1;
+        int shorter = Math.min(width, height);
+        while (reduction < MAX_REDUCTION && shorter / (reduction * 2) >= targetSize) {
+            reduction *= 2;
+        }
+        return reduction;
+    }
+
+    private static int readFlag(int reduction) {
+        switch (reduction) {
+            case 2:
+                return Imgcodecs.IMREAD_REDUCED_GRAYSCALE_2;
+            case 4:
+                return Imgcodecs.IMREAD_REDUCED_GRAYSCALE_4;
+            case 8:
+                return Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8;
+            default:
+                return Imgcodecs.IMREAD_GRAYSCALE;
+        }
+    }
+
+    private static void appendString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Pool thread with its own detector, preprocessing buffers and output line, released when the
+     * pool shuts the thread down.
+     */
+    private final class Worker extends ForkJoinWorkerThread {
+        private final FaceBoxes faces = new FaceBoxes();
+        private final StringBuilder line = new StringBuilder(256);
+        private FaceDetector detector;
+        private PreprocessPipeline preprocess;
+
+        Worker(ForkJoinPool pool) {
+            super(pool);
+        }
+
+        void process(File file, String name, long index) {
+            line.setLength(0);
+            line.append("{\"index\":").append(index).append(",\"file\":");
+            appendString(line, name);
+            Mat gray = null;
+            try {
+                long start = System.nanoTime();
+                int reduction = reductionFor(file, targetSize);
+                gray = Imgcodecs.imread(file.getPath(), readFlag(reduction) | Imgcodecs.IMREAD_IGNORE_ORIENTATION);
+                long decoded = System.nanoTime();
+                if (gray.empty()) throw new IOException("cannot decode");
+                metrics.record(PipelineMetrics.Stage.DECODE, decoded - start);
+
+                if (detector == null) open();
+                Mat input = preprocess.process(gray);
+                detector.setParameters(level.scaleFactor, level.minFaceSize(input.cols(), input.rows()), 0);
+                detector.detect(input, faces);
+                long detected = System.nanoTime();
+                metrics.record(PipelineMetrics.Stage.DETECTION, detected - decoded);
+
+                line.append(",\"width\":").append(gray.cols())
+                        .append(",\"height\":").append(gray.rows())
+                        .append(",\"reduction\":").append(reduction)
+                        .append(String.format(Locale.US, ",\"decode_ms\":%.2f,\"detect_ms\":%.2f",
+                                (decoded - start) / 1e6, (detected - decoded) / 1e6))
+                        .append(",\"faces\":[");
+                for (int i = 0; i < faces.size(); i++) {
+                    if (i > 0) line.append(',');
+                    line.append('[').append(faces.x(i) * reduction)
+                            .append(',').append(faces.y(i) * reduction)
+                            .append(',').append(faces.width(i) * reduction)
+                            .append(',').append(faces.height(i) * reduction)
+                            .append(']');
+                }
+                line.append("]}\n");
+                faceCount.addAndGet(faces.size());
+            } catch (IOException | RuntimeException e) {
+                errors.incrementAndGet();
+                line.append(",\"error\":");
+                appendString(line, String.valueOf(e.getMessage()));
+                line.append("}\n");
+            } finally {
+                if (gray != null) gray.release();
+            }
+            images.incrementAndGet();
+            write(line);
+        }
+
+        private void open() throws IOException {
+            detector = openDetector();
+            detectorInitNanos.addAndGet(detector.getInitNanos());
+            preprocess = equalize
+                    ? new PreprocessPipeline(metrics, new PreprocessPipeline.Equalize(adaptiveEqualization))
+                    : new PreprocessPipeline(metrics);
+        }
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            if (detector != null) detector.release();
+            if (preprocess != null) preprocess.release();
+            super.onTermination(exception);
+        }
+    }
+}